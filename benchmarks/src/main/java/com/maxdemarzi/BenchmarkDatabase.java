@@ -0,0 +1,47 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.snapshot.Snapshots;
+import org.apache.commons.io.FileUtils;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.api.procedure.GlobalProcedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
+
+/**
+ * An embedded database in a temporary directory with the procedures registered, like in the EmbeddedNeo4jTest.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    private final Path directory;
+    private final DatabaseManagementService managementService;
+    private final GraphDatabaseService db;
+
+    BenchmarkDatabase() throws Exception {
+        directory = Files.createTempDirectory("decision-trees-benchmark");
+        managementService = new DatabaseManagementServiceBuilder(directory).build();
+        db = managementService.database(DEFAULT_DATABASE_NAME);
+
+        GlobalProcedures gp = ((GraphDatabaseAPI) db)
+            .getDependencyResolver()
+            .resolveDependency(GlobalProcedures.class);
+        gp.registerProcedure(DecisionTreeTraverser.class);
+        gp.registerProcedure(Snapshots.class);
+    }
+
+    GraphDatabaseService db() {
+        return db;
+    }
+
+    @Override
+    public void close() throws IOException {
+        managementService.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+}
@@ -0,0 +1,97 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.NullLog;
+import com.maxdemarzi.generate.TreeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating a single Rule node the way the expanders do, with its compiled rule already cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpanderBenchmark {
+
+    // How many facts each rule reads
+    @Param({"1", "4"})
+    public int terms;
+
+    private BenchmarkDatabase database;
+    private DecisionTreeExpander expander;
+    private DecisionTreeExpanderTwo expanderTwo;
+
+    private Transaction tx;
+    private Node expression;
+    private Node script;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        database = new BenchmarkDatabase();
+        Random random = new Random(42);
+        TreeGenerator expressions = new TreeGenerator(1, 2, 0, terms, 42);
+        expressions.generate(database.db(), "expressions", TreeGenerator.DEFAULT_BATCH_SIZE);
+        TreeGenerator scripts = new TreeGenerator(1, 4, 1, terms, 42);
+        scripts.generate(database.db(), "scripts", TreeGenerator.DEFAULT_BATCH_SIZE);
+
+        expander = new DecisionTreeExpander(Facts.random(expressions, random));
+        expanderTwo = new DecisionTreeExpanderTwo(Facts.random(scripts, random), NullLog.getInstance());
+    }
+
+    @Setup(Level.Iteration)
+    public void begin() {
+        // Nodes are only valid in the transaction they were read in, and transactions belong to a thread.
+        tx = database.db().beginTx();
+        expression = root(tx, "expressions");
+        script = root(tx, "scripts");
+    }
+
+    @TearDown(Level.Iteration)
+    public void end() {
+        tx.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    private static Node root(Transaction tx, String id) {
+        return tx.findNode(Labels.Tree, "id", id)
+            .getSingleRelationship(RelationshipTypes.HAS, Direction.OUTGOING)
+            .getEndNode();
+    }
+
+    @Benchmark
+    public boolean isTrue() {
+        return expander.isTrue(expression);
+    }
+
+    @Benchmark
+    public RelationshipType choosePath() throws Exception {
+        return expanderTwo.choosePath(script);
+    }
+}
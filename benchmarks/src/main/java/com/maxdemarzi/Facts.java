@@ -0,0 +1,23 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.generate.TreeGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+final class Facts {
+
+    private Facts() {}
+
+    /**
+     * @return a random value between 0 and 99 for every fact the rules of the generated tree may read
+     */
+    static Map<String, String> random(TreeGenerator generator, Random random) {
+        Map<String, String> facts = new HashMap<>();
+        for (String name : generator.getFactNames()) {
+            facts.put(name, String.valueOf(random.nextInt(100)));
+        }
+        return facts;
+    }
+}
@@ -0,0 +1,46 @@
+package com.maxdemarzi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reflective helpers every uncached rule goes through: parsing the parameter types and creating the arguments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MagicBenchmark {
+
+    @Param({"int", "int,String", "int,long,double,boolean,String,String[]"})
+    public String parameterTypes;
+
+    public String value = "42";
+
+    @Benchmark
+    public Object createObjectPrimitive() throws Exception {
+        return Magic.createObject(int.class, value);
+    }
+
+    @Benchmark
+    public Object createObjectString() throws Exception {
+        return Magic.createObject(String.class, value);
+    }
+
+    @Benchmark
+    public Class<?>[] stringToTypes() {
+        return Magic.stringToTypes(parameterTypes);
+    }
+}
@@ -0,0 +1,98 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.generate.TreeGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The traversal procedures end to end, one Cypher call in its own transaction per operation, against generated
+ * trees. Expression trees are binary, the fan-out is the number of outcomes of each script rule.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TraversalBenchmark {
+
+    private static final String DECISION_TREE =
+        "CALL com.maxdemarzi.traverse.decision_tree($tree, $facts) yield path return path";
+    private static final String DECISION_TREE_TWO =
+        "CALL com.maxdemarzi.traverse.decision_tree_two($tree, $facts) yield path return path";
+
+    // Sets of facts cycled through so every call doesn't take the same path
+    private static final int FACTS = 64;
+
+    @Param({"4", "8"})
+    public int depth;
+
+    @Param({"2", "4"})
+    public int fanout;
+
+    // How many facts each rule reads
+    @Param({"1", "4"})
+    public int terms;
+
+    private BenchmarkDatabase database;
+    private Map<String, Object>[] expressionParameters;
+    private Map<String, Object>[] scriptParameters;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        database = new BenchmarkDatabase();
+        Random random = new Random(42);
+        TreeGenerator expressions = new TreeGenerator(depth, fanout, 0, terms, 42);
+        expressions.generate(database.db(), "expressions", TreeGenerator.DEFAULT_BATCH_SIZE);
+        TreeGenerator scripts = new TreeGenerator(depth, fanout, 1, terms, 42);
+        scripts.generate(database.db(), "scripts", TreeGenerator.DEFAULT_BATCH_SIZE);
+
+        expressionParameters = new Map[FACTS];
+        scriptParameters = new Map[FACTS];
+        for (int i = 0; i < FACTS; i++) {
+            expressionParameters[i] = Map.of("tree", "expressions", "facts", Facts.random(expressions, random));
+            scriptParameters[i] = Map.of("tree", "scripts", "facts", Facts.random(scripts, random));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public void decisionTree(Blackhole bh) {
+        run(DECISION_TREE, expressionParameters, bh);
+    }
+
+    @Benchmark
+    public void decisionTreeTwo(Blackhole bh) {
+        run(DECISION_TREE_TWO, scriptParameters, bh);
+    }
+
+    private void run(String query, Map<String, Object>[] parameters, Blackhole bh) {
+        Map<String, Object> p = parameters[next++ & (FACTS - 1)];
+        database.db().executeTransactionally(query, p, result -> {
+            result.forEachRemaining(bh::consume);
+            return null;
+        });
+    }
+}
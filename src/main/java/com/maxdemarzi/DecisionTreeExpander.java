@@ -1,10 +1,12 @@
 package com.maxdemarzi;
 
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleCache;
 import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
 import com.maxdemarzi.schema.RelationshipTypes;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.codehaus.janino.ExpressionEvaluator;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.traversal.BranchState;
 
@@ -16,9 +18,9 @@ public class DecisionTreeExpander implements PathExpander<String> {
 
     private static final Logger log = LogManager.getLogger(DecisionTreeExpander.class);
 
-    private Map<String, String> facts;
+    private Map<String, ?> facts;
 
-    public DecisionTreeExpander(Map<String, String> facts) {
+    public DecisionTreeExpander(Map<String, ?> facts) {
         this.facts = facts;
     }
 
@@ -33,18 +35,23 @@ public class DecisionTreeExpander implements PathExpander<String> {
 
         // If we have Rules to evaluate, go do that.
         if (path.endNode().hasRelationship(Direction.OUTGOING, RelationshipTypes.HAS)) {
-            return path.endNode().getRelationships(Direction.OUTGOING, RelationshipTypes.HAS);
+            // In priority order, so with firstOnly the first Answer found is the first decisive one.
+            return Priorities.has(path.endNode());
         }
 
         // when we get to a rule node, check to see if its an end node and if so,
         // perform a boolean operation via isTrue() method to evaluate the expression
         if (path.endNode().hasLabel(Labels.Rule)) {
             try {
+                // Trees may mix in Rules with a script, those choose the relationship type to follow themselves
+                if (path.endNode().hasProperty("script")) {
+                    return path.endNode().getRelationships(Direction.OUTGOING, choosePath(path.endNode()));
+                }
                 if (isTrue(path.endNode())) {
-                    log.info("path endnode:{} IS TRUE", path.endNode());
+                    log.debug("path endnode:{} IS TRUE", path.endNode());
                     return path.endNode().getRelationships(Direction.OUTGOING, RelationshipTypes.IS_TRUE);
                 } else {
-                    log.info("path endnode:{} IS FALSE", path.endNode());
+                    log.debug("path endnode:{} IS FALSE", path.endNode());
                     return path.endNode().getRelationships(Direction.OUTGOING, RelationshipTypes.IS_FALSE);
                 }
             } catch (Exception e) {
@@ -59,39 +66,24 @@ public class DecisionTreeExpander implements PathExpander<String> {
 
 
     // see https://janino-compiler.github.io/janino/#getting_started
-    private boolean isTrue(Node rule) {
-
-        // Get the properties of the rule stored in the node
-        Map<String, Object> ruleProperties = rule.getAllProperties();
-        String[] parameterNames = Magic.explode((String) ruleProperties.get("parameter_names"));
-        Class<?>[] parameterTypes = Magic.stringToTypes((String) ruleProperties.get("parameter_types"));
-
-        // Fill the arguments array with their corresponding values
-        Object[] arguments = new Object[parameterNames.length];
-        for (int j = 0; j < parameterNames.length; ++j) {
-            try {
-                arguments[j] = Magic.createObject(parameterTypes[j], facts.get(parameterNames[j]));
-            } catch (Exception e) {
-                log.error("error occurred while resolving expression from parameters: {}", e.getMessage());
-                throw new RuntimeException(e);
-            }
-        }
-
-        ExpressionEvaluator ee = new ExpressionEvaluator();
-        ee.setParameters(parameterNames, parameterTypes);
-        ee.setExpressionType(boolean.class);
-        String expression = (String) ruleProperties.get("expression");
+    // Package private so it can be benchmarked on its own.
+    boolean isTrue(Node rule) {
 
-        // And now we "cook" (scan, parse, compile and load) the expression.
+        // Get the compiled expression of the rule stored in the node, Janino only cooks it the first time
+        CompiledRule compiled;
         try {
-            ee.cook(expression);
+            compiled = RuleCache.getInstance().expression(rule);
         } catch (Exception e) {
             log.error("error occurred while cooking the expression: {}", e.getMessage());
             throw new RuntimeException(e);
         }
+
+        // Fill the arguments array with their corresponding values, converted to their types as they are passed in
+        Object[] arguments = compiled.arguments(facts);
+
         boolean returnValue = false;
         try {
-            returnValue = (boolean) ee.evaluate(arguments);
+            returnValue = compiled.isTrue(arguments);
         } catch (InvocationTargetException e) {
             log.error("error occurred while evaluating the result: {}", e.getMessage());
             throw new RuntimeException(e);
@@ -99,6 +91,11 @@ public class DecisionTreeExpander implements PathExpander<String> {
         return returnValue;
     }
 
+    private RelationshipType choosePath(Node rule) throws Exception {
+        CompiledRule compiled = RuleCache.getInstance().script(rule);
+        return RelationshipType.withName(compiled.choosePath(compiled.arguments(facts)));
+    }
+
     @Override
     public PathExpander<String> reverse() {
         return null;
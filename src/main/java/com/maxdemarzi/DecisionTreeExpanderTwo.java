@@ -1,8 +1,10 @@
 package com.maxdemarzi;
 
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleCache;
 import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
 import com.maxdemarzi.schema.RelationshipTypes;
-import org.codehaus.janino.ScriptEvaluator;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.traversal.BranchState;
 import org.neo4j.logging.Log;
@@ -11,14 +13,12 @@ import java.util.Map;
 
 public class DecisionTreeExpanderTwo implements PathExpander<String> {
 
-    private Map<String, String> facts;
+    private Map<String, ?> facts;
     private Log log;
-    ScriptEvaluator se = new ScriptEvaluator();
 
-    public DecisionTreeExpanderTwo(Map<String, String> facts, Log log) {
+    public DecisionTreeExpanderTwo(Map<String, ?> facts, Log log) {
         this.facts = facts;
         this.log = log;
-        se.setReturnType(String.class);
     }
 
     @Override
@@ -30,11 +30,17 @@ public class DecisionTreeExpanderTwo implements PathExpander<String> {
 
         // If we have Rules to evaluate, go do that.
         if (path.endNode().hasRelationship(Direction.OUTGOING, RelationshipTypes.HAS)) {
-            return path.endNode().getRelationships(Direction.OUTGOING, RelationshipTypes.HAS);
+            // In priority order, so with firstOnly the first Answer found is the first decisive one.
+            return Priorities.has(path.endNode());
         }
 
         if (path.endNode().hasLabel(Labels.Rule)) {
             try {
+                // Trees may mix in Rules with an expression, those follow IS_TRUE or IS_FALSE
+                if (!path.endNode().hasProperty("script")) {
+                    return path.endNode().getRelationships(Direction.OUTGOING,
+                        isTrue(path.endNode()) ? RelationshipTypes.IS_TRUE : RelationshipTypes.IS_FALSE);
+                }
                 return path.endNode().getRelationships(Direction.OUTGOING, choosePath(path.endNode()));
             } catch (Exception e) {
                 log.debug("Decision Tree Traversal failed", e);
@@ -47,25 +53,20 @@ public class DecisionTreeExpanderTwo implements PathExpander<String> {
         return org.neo4j.internal.helpers.collection.Iterables.emptyResourceIterable();
     }
 
-    private RelationshipType choosePath(Node rule) throws Exception {
-        // Get the properties of the rule stored in the node
-        Map<String, Object> ruleProperties = rule.getAllProperties();
-        String[] parameterNames = Magic.explode((String) ruleProperties.get("parameter_names"));
-        Class<?>[] parameterTypes = Magic.stringToTypes((String) ruleProperties.get("parameter_types"));
+    // Package private so it can be benchmarked on its own.
+    RelationshipType choosePath(Node rule) throws Exception {
+        // Get the compiled script of the rule stored in the node, Janino only cooks it the first time
+        CompiledRule compiled = RuleCache.getInstance().script(rule);
 
-        // Fill the arguments array with their corresponding values
-        Object[] arguments = new Object[parameterNames.length];
-        for (int j = 0; j < parameterNames.length; ++j) {
-            arguments[j] = Magic.createObject(parameterTypes[j], facts.get(parameterNames[j]));
-        }
-
-        // Set our parameters with their matching types
-        se.setParameters(parameterNames, parameterTypes);
+        // Fill the arguments array with their corresponding values, converted to their types as they are passed in
+        Object[] arguments = compiled.arguments(facts);
 
-        // And now we "cook" (scan, parse, compile and load) the script.
-        se.cook((String) ruleProperties.get("script"));
+        return RelationshipType.withName(compiled.choosePath(arguments));
+    }
 
-        return RelationshipType.withName((String) se.evaluate(arguments));
+    private boolean isTrue(Node rule) throws Exception {
+        CompiledRule compiled = RuleCache.getInstance().expression(rule);
+        return compiled.isTrue(compiled.arguments(facts));
     }
 
     @Override
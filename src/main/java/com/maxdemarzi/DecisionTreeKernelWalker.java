@@ -0,0 +1,284 @@
+package com.maxdemarzi;
+
+import com.maxdemarzi.results.DecisionResult;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleBytecode;
+import com.maxdemarzi.rules.RuleCache;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.PropertyCursor;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.RelationshipTraversalCursor;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.storageengine.api.PropertySelection;
+import org.neo4j.storageengine.api.RelationshipSelection;
+import org.neo4j.values.ElementIdMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walks a Tree the same way the {@link DecisionTreeExpander} and {@link DecisionTreeExpanderTwo} do, but straight
+ * on the kernel read API instead of the traversal framework. Tokens are resolved once per walk, a single node,
+ * relationship and property cursor are reused for every node, and only the properties a Rule needs are read.
+ * Rules with a script are evaluated like decision_tree_two, all others like decision_tree. HAS relationships are
+ * followed in {@link Priorities} order, and in first-match mode the walk stops at the first Answer it reaches.
+ */
+public class DecisionTreeKernelWalker implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(DecisionTreeKernelWalker.class);
+
+    private Map<String, ?> facts;
+    private final boolean firstMatch;
+    private final Read read;
+    private final TokenRead tokenRead;
+    private final ElementIdMapper elementIdMapper;
+
+    private final NodeCursor nodeCursor;
+    private final RelationshipTraversalCursor relationshipCursor;
+    private final PropertyCursor propertyCursor;
+
+    private final int answer;
+    private final int rule;
+    private final int has;
+    private final int isTrue;
+    private final int isFalse;
+    private final int id;
+    private final int parameterNames;
+    private final int parameterTypes;
+    private final int expression;
+    private final int script;
+    private final int priority;
+    private final int bytecode;
+    private final int bytecodeHash;
+    private final PropertySelection ruleProperties;
+    private final Map<String, Integer> outcomes = new HashMap<>();
+
+    private final LongHashSet visited = new LongHashSet();
+    private final ArrayList<String> path = new ArrayList<>();
+    private List<DecisionResult> results = new ArrayList<>();
+
+    public DecisionTreeKernelWalker(InternalTransaction txn, Map<String, ?> facts) {
+        this(txn, facts, false);
+    }
+
+    public DecisionTreeKernelWalker(InternalTransaction txn, Map<String, ?> facts, boolean firstMatch) {
+        KernelTransaction ktx = txn.kernelTransaction();
+        this.facts = facts;
+        this.firstMatch = firstMatch;
+        this.read = ktx.dataRead();
+        this.tokenRead = ktx.tokenRead();
+        this.elementIdMapper = txn.elementIdMapper();
+
+        this.nodeCursor = ktx.cursors().allocateNodeCursor(ktx.cursorContext(), ktx.memoryTracker());
+        this.relationshipCursor = ktx.cursors().allocateRelationshipTraversalCursor(ktx.cursorContext(), ktx.memoryTracker());
+        this.propertyCursor = ktx.cursors().allocatePropertyCursor(ktx.cursorContext(), ktx.memoryTracker());
+
+        this.answer = tokenRead.nodeLabel(Labels.Answer.name());
+        this.rule = tokenRead.nodeLabel(Labels.Rule.name());
+        this.has = tokenRead.relationshipType(RelationshipTypes.HAS.name());
+        this.isTrue = tokenRead.relationshipType(RelationshipTypes.IS_TRUE.name());
+        this.isFalse = tokenRead.relationshipType(RelationshipTypes.IS_FALSE.name());
+        this.id = tokenRead.propertyKey("id");
+        this.parameterNames = tokenRead.propertyKey("parameter_names");
+        this.parameterTypes = tokenRead.propertyKey("parameter_types");
+        this.expression = tokenRead.propertyKey("expression");
+        this.script = tokenRead.propertyKey("script");
+        this.priority = tokenRead.propertyKey(Priorities.PRIORITY);
+        this.bytecode = tokenRead.propertyKey(RuleBytecode.BYTECODE);
+        this.bytecodeHash = tokenRead.propertyKey(RuleBytecode.BYTECODE_HASH);
+        this.ruleProperties = PropertySelection.selection(parameterNames, parameterTypes, expression, script);
+    }
+
+    /**
+     * @return a result for every Answer reached from the given Tree node, with the Rules on the way there
+     */
+    public List<DecisionResult> walk(long tree) {
+        visit(tree);
+        return results;
+    }
+
+    /**
+     * Walks again with other facts, reusing the tokens and cursors of this walker.
+     *
+     * @return a result for every Answer reached from the given Tree node, with the Rules on the way there
+     */
+    public List<DecisionResult> walk(long tree, Map<String, ?> facts) {
+        this.facts = facts;
+        this.visited.clear();
+        this.path.clear();
+        this.results = new ArrayList<>();
+        return walk(tree);
+    }
+
+    private void visit(long node) {
+        // Like the traversal framework, each node is only visited once.
+        if ((firstMatch && !results.isEmpty()) || !visited.add(node)) {
+            return;
+        }
+        read.singleNode(node, nodeCursor);
+        if (!nodeCursor.next()) {
+            return;
+        }
+
+        // If we get to an Answer stop traversing, we found a valid path.
+        if (answer != TokenRead.NO_TOKEN && nodeCursor.hasLabel(answer)) {
+            results.add(new DecisionResult((String) property(id), new ArrayList<>(path)));
+            return;
+        }
+
+        // If we have Rules to evaluate, go do that.
+        LongArrayList targets = hasTargets();
+        if (!targets.isEmpty()) {
+            targets.forEach(this::visit);
+            return;
+        }
+
+        if (rule != TokenRead.NO_TOKEN && nodeCursor.hasLabel(rule)) {
+            int type;
+            try {
+                type = choose();
+            } catch (Exception e) {
+                // Could not continue this way!
+                log.debug("error occurred while evaluating rule {}: {}", node, e.getMessage());
+                return;
+            }
+            // The cursor was used to read the rule, position it back on the rule to follow its relationships.
+            read.singleNode(node, nodeCursor);
+            nodeCursor.next();
+            targets = targets(type);
+            path.add(elementIdMapper.nodeElementId(node));
+            targets.forEach(this::visit);
+            path.remove(path.size() - 1);
+        }
+    }
+
+    /**
+     * @return the type of the relationships to follow from the Rule the node cursor is on
+     */
+    private int choose() throws Exception {
+        String names = null;
+        String types = null;
+        String expressionSource = null;
+        String scriptSource = null;
+        nodeCursor.properties(propertyCursor, ruleProperties);
+        while (propertyCursor.next()) {
+            int key = propertyCursor.propertyKey();
+            Object value = propertyCursor.propertyValue().asObject();
+            if (key == parameterNames) {
+                names = (String) value;
+            } else if (key == parameterTypes) {
+                types = (String) value;
+            } else if (key == expression) {
+                expressionSource = (String) value;
+            } else if (key == script) {
+                scriptSource = (String) value;
+            }
+        }
+
+        String ruleId = elementIdMapper.nodeElementId(nodeCursor.nodeReference());
+        if (scriptSource != null) {
+            CompiledRule compiled = RuleCache.getInstance()
+                .get(CompiledRule.Kind.SCRIPT, ruleId, names, types, scriptSource, this::bytecode);
+            String outcome = compiled.choosePath(compiled.arguments(facts));
+            return outcomes.computeIfAbsent(outcome, tokenRead::relationshipType);
+        }
+        CompiledRule compiled = RuleCache.getInstance()
+            .get(CompiledRule.Kind.EXPRESSION, ruleId, names, types, expressionSource, this::bytecode);
+        return compiled.isTrue(compiled.arguments(facts)) ? isTrue : isFalse;
+    }
+
+    /**
+     * @return the end nodes of the outgoing relationships of the given type, read before we move the cursors on
+     */
+    private LongArrayList targets(int type) {
+        LongArrayList targets = new LongArrayList();
+        if (type == TokenRead.NO_TOKEN) {
+            return targets;
+        }
+        nodeCursor.relationships(relationshipCursor, RelationshipSelection.selection(type, Direction.OUTGOING));
+        while (relationshipCursor.next()) {
+            targets.add(relationshipCursor.otherNodeReference());
+        }
+        return targets;
+    }
+
+    /**
+     * @return the end nodes of the outgoing HAS relationships, in priority order
+     */
+    private LongArrayList hasTargets() {
+        LongArrayList targets = new LongArrayList();
+        if (has == TokenRead.NO_TOKEN) {
+            return targets;
+        }
+        LongArrayList priorities = new LongArrayList();
+        boolean prioritized = false;
+        nodeCursor.relationships(relationshipCursor, RelationshipSelection.selection(has, Direction.OUTGOING));
+        while (relationshipCursor.next()) {
+            targets.add(relationshipCursor.otherNodeReference());
+            long p = Long.MAX_VALUE;
+            if (priority != TokenRead.NO_TOKEN) {
+                relationshipCursor.properties(propertyCursor, PropertySelection.selection(priority));
+                if (propertyCursor.next()) {
+                    p = Priorities.priority(propertyCursor.propertyValue().asObject());
+                }
+            }
+            prioritized |= p != Long.MAX_VALUE;
+            priorities.add(p);
+        }
+        if (!prioritized) {
+            return targets;
+        }
+        // Insertion sort, stable so equal priorities keep their order, and there are only a few of them.
+        for (int i = 1; i < priorities.size(); i++) {
+            long p = priorities.get(i);
+            long target = targets.get(i);
+            int j = i - 1;
+            for (; j >= 0 && priorities.get(j) > p; j--) {
+                priorities.set(j + 1, priorities.get(j));
+                targets.set(j + 1, targets.get(j));
+            }
+            priorities.set(j + 1, p);
+            targets.set(j + 1, target);
+        }
+        return targets;
+    }
+
+    /**
+     * @return the classes stored on the Rule the node cursor is on, only read when the rule isn't cached yet
+     */
+    private RuleBytecode bytecode() {
+        Object encoded = property(bytecode);
+        Object hash = property(bytecodeHash);
+        if (!(encoded instanceof byte[]) || !(hash instanceof String)) {
+            return null;
+        }
+        return new RuleBytecode((String) hash, (byte[]) encoded);
+    }
+
+    private Object property(int key) {
+        if (key == TokenRead.NO_TOKEN) {
+            return null;
+        }
+        nodeCursor.properties(propertyCursor, PropertySelection.selection(key));
+        return propertyCursor.next() ? propertyCursor.propertyValue().asObject() : null;
+    }
+
+    @Override
+    public void close() {
+        nodeCursor.close();
+        relationshipCursor.close();
+        propertyCursor.close();
+    }
+}
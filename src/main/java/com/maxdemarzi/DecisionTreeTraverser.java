@@ -1,18 +1,46 @@
 package com.maxdemarzi;
 
+import com.maxdemarzi.audit.AuditLog;
+import com.maxdemarzi.compiled.CompiledTree;
+import com.maxdemarzi.compiled.CompiledTreeCache;
+import com.maxdemarzi.decisions.DecisionCache;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.profile.Profile;
+import com.maxdemarzi.profile.ProfilingExpander;
+import com.maxdemarzi.results.BatchResult;
+import com.maxdemarzi.results.CompactResult;
+import com.maxdemarzi.results.DecisionResult;
 import com.maxdemarzi.results.PathResult;
+import com.maxdemarzi.results.ProfileResult;
+import com.maxdemarzi.results.TreeDecisionsResult;
 import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.snapshot.ColumnarBatch;
+import com.maxdemarzi.snapshot.EvaluationPool;
+import com.maxdemarzi.snapshot.RuleMemo;
+import com.maxdemarzi.snapshot.SnapshotCache;
+import com.maxdemarzi.snapshot.TreeSnapshot;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import org.apache.commons.compress.utils.Lists;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionTerminatedException;
 import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.graphdb.traversal.Traverser;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
 
@@ -39,65 +67,399 @@ public class DecisionTreeTraverser {
     private static final DecisionTreeEvaluator decisionTreeEvaluator = new DecisionTreeEvaluator();   // when do we stop traversing.
 
     @Procedure(name = "com.maxdemarzi.traverse.decision_tree", mode = Mode.READ)
-    @Description("CALL com.maxdemarzi.traverse.decision_tree(tree, facts) - traverse decision tree")
-    public Stream<PathResult> traverseDecisionTree(@Name("tree") String id, @Name("facts") Map<String, String> facts) {
-        // Which Decision Tree are we interested in?
-        String mapAsString = facts.keySet().stream()
-                                     .map(key -> key + "=" + facts.get(key))
-                                     .collect(Collectors.joining(", ", "{", "}"));
-        log.info("id:{} facts:{}", id, mapAsString);
+    @Description("CALL com.maxdemarzi.traverse.decision_tree(tree, facts, limit, firstOnly) - traverse decision tree")
+    public Stream<PathResult> traverseDecisionTree(@Name("tree") String id, @Name("facts") Map<String, String> facts,
+                                                   @Name(value = "limit", defaultValue = "-1") long limit,
+                                                   @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in? Every decision is recorded by the AuditLog, off this thread.
         Node tree = txn.findNode(Labels.Tree, "id", id);
         if (tree != null) {
-            log.info("tree:{}", tree.getDegree());
             // Find the paths by traversing this graph and the facts given
-            return decisionPath(tree, facts);
+            return track("decision_tree", id, facts, started, decisionPath(tree, facts, firstOnly ? 1 : limit),
+                DecisionTreeTraverser::decision);
         }
-        return null;
+        return Stream.empty();
     }
 
 
-    private Stream<PathResult> decisionPath(Node tree, Map<String, String> facts) {
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_typed", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_typed(tree, facts, limit, firstOnly) - traverse decision tree with facts as Cypher values")
+    public Stream<PathResult> traverseDecisionTreeTyped(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                        @Name(value = "limit", defaultValue = "-1") long limit,
+                                                        @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // Find the paths by traversing this graph and the facts given
+            return track("decision_tree_typed", id, facts, started, decisionPath(tree, facts, firstOnly ? 1 : limit),
+                DecisionTreeTraverser::decision);
+        }
+        return Stream.empty();
+    }
+
+    private Stream<PathResult> decisionPath(Node tree, Map<String, ?> facts, long limit) {
         TraversalDescription myTraversal = txn
             .traversalDescription()
             .depthFirst()
             .expand(new DecisionTreeExpander(facts))
             .evaluator(decisionTreeEvaluator);  // created once
 
-        List<PathResult> l = Lists.newArrayList();
-        myTraversal
-            .traverse(tree)
-            .forEach(n -> {
-                l.add(new PathResult(n));
+        return paths(myTraversal.traverse(tree), limit);
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_compact", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_compact(tree, facts, limit, firstOnly) - traverse decision tree, returning only answers, rules and outcomes")
+    public Stream<CompactResult> traverseDecisionTreeCompact(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                             @Name(value = "limit", defaultValue = "-1") long limit,
+                                                             @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // Same traversal, but the paths never leave the database
+            return track("decision_tree_compact", id, facts, started, decisionPath(tree, facts, firstOnly ? 1 : limit).map(result -> new CompactResult(result.path)),
+                DecisionTreeTraverser::decision);
+        }
+        return Stream.empty();
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_compiled", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_compiled(tree, facts, firstMatch) - evaluate decision tree compiled into a single class")
+    public Stream<DecisionResult> traverseDecisionTreeCompiled(@Name("tree") String id, @Name("facts") Map<String, String> facts,
+                                                               @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch)
+        throws Exception {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // The whole tree is a single method call, the class is only generated again when the tree changes
+            DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+            return track("decision_tree_compiled", id, facts, started, DecisionCache.getInstance().get(read, "compiled", facts, firstMatch,
+                () -> CompiledTreeCache.getInstance().get(tree).evaluate(facts, firstMatch)).stream(), Function.identity());
+        }
+        return Stream.empty();
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_snapshot", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_snapshot(tree, facts, firstMatch) - evaluate decision tree from its in-memory snapshot")
+    public Stream<DecisionResult> traverseDecisionTreeSnapshot(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                               @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // Only the tree node comes from the graph, the rest is evaluated against the arrays of the snapshot
+            DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+            return track("decision_tree_snapshot", id, facts, started, DecisionCache.getInstance().get(read, "snapshot", facts, firstMatch,
+                () -> SnapshotCache.getInstance().get(tree).evaluate(facts, firstMatch)).stream(), Function.identity());
+        }
+        return Stream.empty();
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_parallel", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_parallel(tree, facts, firstMatch) - evaluate the HAS branches of the decision tree snapshot in parallel")
+    public Stream<DecisionResult> traverseDecisionTreeParallel(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                               @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // The snapshot doesn't need the transaction, so its branches can be evaluated on other threads
+            TreeSnapshot snapshot = SnapshotCache.getInstance().get(tree);
+            DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+            return track("decision_tree_parallel", id, facts, started, DecisionCache.getInstance().get(read, "parallel", facts, firstMatch,
+                () -> snapshot.evaluate(snapshot.slots(facts), firstMatch, EvaluationPool.getInstance())).stream(), Function.identity());
+        }
+        return Stream.empty();
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_kernel", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_kernel(tree, facts, firstMatch) - walk decision tree with kernel cursors")
+    public Stream<DecisionResult> traverseDecisionTreeKernel(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                             @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree == null) {
+            return Stream.empty();
+        }
+        DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+        return track("decision_tree_kernel", id, facts, started, DecisionCache.getInstance().get(read, "kernel", facts, firstMatch, () -> {
+            // Walked eagerly so the cursors are closed before the procedure returns
+            InternalTransaction internal = (InternalTransaction) txn;
+            try (DecisionTreeKernelWalker walker = new DecisionTreeKernelWalker(internal, facts, firstMatch)) {
+                return walker.walk(internal.elementIdMapper().nodeId(tree.getElementId()));
+            }
+        }).stream(), Function.identity());
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_batch", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_batch(tree, listOfFacts, firstMatch) - evaluate decision tree for each facts map")
+    public Stream<BatchResult> traverseDecisionTreeBatch(@Name("tree") String id, @Name("facts") List<Map<String, String>> facts,
+                                                         @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch)
+        throws Exception {
+        long started = System.nanoTime();
+        // Look up and compile the tree once for the whole batch
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree == null) {
+            return Stream.empty();
+        }
+        CompiledTree compiled = CompiledTreeCache.getInstance().get(tree);
+        DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+
+        // Evaluated lazily, one row per facts map as the client pulls them
+        Stream<Row> rows = IntStream.range(0, facts.size())
+            .mapToObj(i -> new Row(i, DecisionCache.getInstance().get(read, "compiled", facts.get(i), firstMatch,
+                () -> compiled.evaluate(facts.get(i), firstMatch))));
+        return MetricsRegistry.getInstance().tree(id).track(started,
+            auditRows("decision_tree_batch", id, facts, started, rows), result -> result.answers.size());
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_batch_parallel", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_batch_parallel(tree, listOfFacts, workers, firstMatch) - evaluate decision tree for each facts map on several workers")
+    public Stream<BatchResult> traverseDecisionTreeBatchParallel(@Name("tree") String id, @Name("facts") List<Map<String, Object>> facts,
+                                                                 @Name(value = "workers", defaultValue = "0") long workers,
+                                                                 @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        long started = System.nanoTime();
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree == null) {
+            return Stream.empty();
+        }
+        String treeId = tree.getElementId();
+        DecisionCache.TreeFacts read = DecisionCache.getInstance().facts(tree);
+        InternalTransaction caller = (InternalTransaction) txn;
+
+        // One contiguous partition per worker, so each worker only opens one transaction
+        int partitions = (int) Math.max(1, Math.min(facts.size(), workers > 0 ? workers : ScoringPool.getParallelism()));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<CompletableFuture<List<Row>>> futures = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            int from = (int) ((long) facts.size() * p / partitions);
+            int to = (int) ((long) facts.size() * (p + 1) / partitions);
+            futures.add(CompletableFuture.supplyAsync(
+                () -> score(treeId, read, facts, from, to, firstMatch, caller, cancelled), ScoringPool.getInstance()));
+        }
+
+        // Partitions are streamed in order, each one as soon as it is done. Once the client stops reading,
+        // partitions that haven't started are dropped and running ones stop at their next row.
+        Stream<Row> rows = futures.stream()
+            .flatMap(future -> future.join().stream())
+            .onClose(() -> {
+                cancelled.set(true);
+                futures.forEach(future -> future.cancel(false));
             });
-        return l.stream();
+        return MetricsRegistry.getInstance().tree(id).track(started,
+            auditRows("decision_tree_batch_parallel", id, facts, started, rows), result -> result.answers.size());
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_batch_columnar", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_batch_columnar(tree, listOfFacts, firstMatch) - evaluate decision tree for all facts maps at once, rule by rule over columns of facts")
+    public Stream<BatchResult> traverseDecisionTreeBatchColumnar(@Name("tree") String id, @Name("facts") List<Map<String, Object>> facts,
+                                                                 @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        long started = System.nanoTime();
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree == null) {
+            return Stream.empty();
+        }
+        // The whole batch is evaluated before the first row is streamed
+        List<List<DecisionResult>> decisions =
+            ColumnarBatch.evaluate(SnapshotCache.getInstance().get(tree), facts, firstMatch);
+        Stream<Row> rows = IntStream.range(0, decisions.size())
+            .mapToObj(i -> new Row(i, decisions.get(i)));
+        return MetricsRegistry.getInstance().tree(id).track(started,
+            auditRows("decision_tree_batch_columnar", id, facts, started, rows), result -> result.answers.size());
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_trees", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_trees(trees, facts, firstMatch) - evaluate several decision trees for the same facts, evaluating rules they share once")
+    public Stream<TreeDecisionsResult> traverseDecisionTrees(@Name("trees") List<String> ids, @Name("facts") Map<String, Object> facts,
+                                                             @Name(value = "firstMatch", defaultValue = "false") boolean firstMatch) {
+        // Shared by every tree of the call, so a rule another tree already evaluated for these facts isn't evaluated again
+        RuleMemo memo = new RuleMemo();
+        AuditLog audit = AuditLog.getInstance();
+        return ids.stream().flatMap(id -> {
+            long started = System.nanoTime();
+            Node tree = txn.findNode(Labels.Tree, "id", id);
+            if (tree == null) {
+                // Still a row, so every tree asked for is answered in order
+                return Stream.of(new TreeDecisionsResult(id, List.of(), List.of(), false));
+            }
+            List<DecisionResult> decisions = SnapshotCache.getInstance().get(tree).evaluate(facts, firstMatch, memo);
+            List<String> answers = decisions.stream().map(decision -> decision.answer).collect(Collectors.toList());
+            List<List<String>> rules = decisions.stream().map(decision -> decision.rules).collect(Collectors.toList());
+            if (audit.isEnabled()) {
+                audit.record("decision_trees", id, facts, answers,
+                    rules.stream().flatMap(List::stream).distinct().collect(Collectors.toList()), System.nanoTime() - started);
+            }
+            return MetricsRegistry.getInstance().tree(id).track(started,
+                Stream.of(new TreeDecisionsResult(id, answers, rules, true)), result -> result.answers.size());
+        });
+    }
+
+    /**
+     * Walks the Tree for the facts from <var>from</var> to <var>to</var> in a read transaction of its own,
+     * so it doesn't see what the calling transaction has not committed yet. Stops early once the call is
+     * <var>cancelled</var>, and fails once the calling transaction is terminated.
+     */
+    private List<Row> score(String treeId, DecisionCache.TreeFacts read, List<Map<String, Object>> facts,
+                            int from, int to, boolean firstMatch, InternalTransaction caller, AtomicBoolean cancelled) {
+        List<Row> rows = new ArrayList<>(to - from);
+        try (Transaction tx = db.beginTx();
+             DecisionTreeKernelWalker walker = new DecisionTreeKernelWalker((InternalTransaction) tx, Map.of(), firstMatch)) {
+            long tree = ((InternalTransaction) tx).elementIdMapper().nodeId(treeId);
+            for (int i = from; i < to && !cancelled.get(); i++) {
+                Optional<Status> terminated = caller.terminationReason();
+                if (terminated.isPresent()) {
+                    throw new TransactionTerminatedException(terminated.get());
+                }
+                Map<String, Object> row = facts.get(i);
+                rows.add(new Row(i, DecisionCache.getInstance().get(read, "kernel", row, firstMatch,
+                    () -> walker.walk(tree, row))));
+            }
+        }
+        return rows;
     }
 
     @Procedure(name = "com.maxdemarzi.traverse.decision_tree_two", mode = Mode.READ)
-    @Description("CALL com.maxdemarzi.traverse.decision_tree_two(tree, facts) - traverse decision tree")
-    public Stream<PathResult> traverseDecisionTreeTwo(@Name("tree") String id, @Name("facts") Map<String, String> facts)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_two(tree, facts, limit, firstOnly) - traverse decision tree")
+    public Stream<PathResult> traverseDecisionTreeTwo(@Name("tree") String id, @Name("facts") Map<String, String> facts,
+                                                      @Name(value = "limit", defaultValue = "-1") long limit,
+                                                      @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly)
         throws IOException {
+        long started = System.nanoTime();
         // Which Decision Tree are we interested in?
         Node tree = txn.findNode(Labels.Tree, "id", id);
         if (tree != null) {
             // Find the paths by traversing this graph and the facts given
-            return decisionPathTwo(tree, facts);
+            return track("decision_tree_two", id, facts, started, decisionPathTwo(tree, facts, firstOnly ? 1 : limit),
+                DecisionTreeTraverser::decision);
         }
-        return null;
+        return Stream.empty();
     }
 
-    private Stream<PathResult> decisionPathTwo(Node tree, Map<String, String> facts) {
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_two_typed", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_two_typed(tree, facts, limit, firstOnly) - traverse decision tree with facts as Cypher values")
+    public Stream<PathResult> traverseDecisionTreeTwoTyped(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                           @Name(value = "limit", defaultValue = "-1") long limit,
+                                                           @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // Find the paths by traversing this graph and the facts given
+            return track("decision_tree_two_typed", id, facts, started, decisionPathTwo(tree, facts, firstOnly ? 1 : limit),
+                DecisionTreeTraverser::decision);
+        }
+        return Stream.empty();
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_two_compact", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_two_compact(tree, facts, limit, firstOnly) - traverse decision tree, returning only answers, rules and outcomes")
+    public Stream<CompactResult> traverseDecisionTreeTwoCompact(@Name("tree") String id, @Name("facts") Map<String, Object> facts,
+                                                                @Name(value = "limit", defaultValue = "-1") long limit,
+                                                                @Name(value = "firstOnly", defaultValue = "false") boolean firstOnly) {
+        long started = System.nanoTime();
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree != null) {
+            // Same traversal, but the paths never leave the database
+            return track("decision_tree_two_compact", id, facts, started, decisionPathTwo(tree, facts, firstOnly ? 1 : limit).map(result -> new CompactResult(result.path)),
+                DecisionTreeTraverser::decision);
+        }
+        return Stream.empty();
+    }
+
+    private Stream<PathResult> decisionPathTwo(Node tree, Map<String, ?> facts, long limit) {
         TraversalDescription myTraversal = txn
             .traversalDescription()
             .depthFirst()
             .expand(new DecisionTreeExpanderTwo(facts, log))
             .evaluator(decisionTreeEvaluator);
 
-        List<PathResult> l = Lists.newArrayList();
-        myTraversal
-            .traverse(tree)
-            .forEach(n -> {
-                l.add(new PathResult(n));
-            });
-        return l.stream();
+        return paths(myTraversal.traverse(tree), limit);
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_profile", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_profile(tree, facts) - traverse decision tree and trace where the time went")
+    public Stream<ProfileResult> traverseDecisionTreeProfile(@Name("tree") String id, @Name("facts") Map<String, Object> facts) {
+        return profile(id, facts);
+    }
+
+    @Procedure(name = "com.maxdemarzi.traverse.decision_tree_two_profile", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.traverse.decision_tree_two_profile(tree, facts) - traverse decision tree and trace where the time went")
+    public Stream<ProfileResult> traverseDecisionTreeTwoProfile(@Name("tree") String id, @Name("facts") Map<String, Object> facts) {
+        return profile(id, facts);
+    }
+
+    // Like PROFILE in Cypher, the traversal runs to the end and comes back as a single row with its trace.
+    private Stream<ProfileResult> profile(String id, Map<String, ?> facts) {
+        Profile profile = new Profile();
+        long started = System.nanoTime();
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        profile.phase(Profile.FIND_NODE, System.nanoTime() - started);
+        if (tree == null) {
+            return Stream.empty();
+        }
+
+        TraversalDescription myTraversal = txn
+            .traversalDescription()
+            .depthFirst()
+            .expand(new ProfilingExpander(facts, profile))
+            .evaluator(decisionTreeEvaluator);
+
+        List<Path> paths = StreamSupport.stream(myTraversal.traverse(tree).spliterator(), false)
+            .collect(Collectors.toList());
+        return Stream.of(new ProfileResult(paths, profile));
+    }
+
+    // Counts the call, the answers it returns and its latency in the metrics of the tree, and audits the decision.
+    private static <T> Stream<T> track(String procedure, String id, Map<String, ?> facts, long started, Stream<T> results,
+                                       Function<T, DecisionResult> decision) {
+        return AuditLog.getInstance().audit(procedure, id, facts, started,
+            MetricsRegistry.getInstance().tree(id).track(started, results), decision);
+    }
+
+    // Every row of a batch is a decision of its own, timed from the start of the call, and only its Answers are
+    // returned.
+    private static Stream<BatchResult> auditRows(String procedure, String id, List<? extends Map<String, ?>> facts,
+                                                 long started, Stream<Row> rows) {
+        AuditLog audit = AuditLog.getInstance();
+        return rows.map(row -> {
+            List<String> answers = row.decisions.stream().map(decision -> decision.answer).collect(Collectors.toList());
+            if (audit.isEnabled()) {
+                audit.record(procedure, id, facts.get(row.index), answers,
+                    row.decisions.stream().flatMap(decision -> decision.rules.stream()).distinct()
+                        .collect(Collectors.toList()),
+                    System.nanoTime() - started);
+            }
+            return new BatchResult(row.index, answers);
+        });
+    }
+
+    // A row of a batch along with the Rules on the way to each of its Answers.
+    private static class Row {
+        final int index;
+        final List<DecisionResult> decisions;
+
+        Row(int index, List<DecisionResult> decisions) {
+            this.index = index;
+            this.decisions = decisions;
+        }
+    }
+
+    private static DecisionResult decision(PathResult result) {
+        return decision(new CompactResult(result.path));
+    }
+
+    private static DecisionResult decision(CompactResult result) {
+        return new DecisionResult(result.answer, result.rules);
+    }
+
+    // The traversal only moves forward as the client pulls rows, and stops once we have enough of them.
+    private static Stream<PathResult> paths(Traverser traverser, long limit) {
+        Stream<PathResult> paths = StreamSupport.stream(traverser.spliterator(), false).map(PathResult::new);
+        return limit < 0 ? paths : paths.limit(limit);
     }
 }
@@ -56,6 +56,7 @@ public class Magic {
 
     /**
      * @return <var>s</var>, converted to a Java type
+     * @throws IllegalArgumentException if there is no such type
      */
     public static Class<?> stringToType(String s) {
         int brackets = 0;
@@ -104,9 +105,7 @@ public class Magic {
         try {
             return Class.forName(s);
         } catch (ClassNotFoundException ex) {
-            ex.printStackTrace();
-            System.exit(1);
-            throw new RuntimeException(); // Never reached. // SUPPRESS CHECKSTYLE AvoidHidingCause
+            throw new IllegalArgumentException("Unknown parameter type " + s, ex);
         }
     }
 
@@ -0,0 +1,45 @@
+package com.maxdemarzi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounded pool batches are scored on by {@link DecisionTreeTraverser#traverseDecisionTreeBatchParallel}, shared
+ * by every procedure call. Scoring a partition opens a transaction and waits on the page cache, so it is kept off the
+ * {@link com.maxdemarzi.snapshot.EvaluationPool} the CPU bound branches of snapshots are evaluated on.
+ * Set the system property <code>com.maxdemarzi.batch.parallelism</code> to change its size, the number of processors
+ * by default.
+ */
+public final class ScoringPool {
+
+    private static final int PARALLELISM =
+        Integer.getInteger("com.maxdemarzi.batch.parallelism", Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService POOL = create();
+
+    private ScoringPool() {}
+
+    private static ExecutorService create() {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "decision-batch-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        // Idle threads go away between batches
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ExecutorService getInstance() {
+        return POOL;
+    }
+
+    public static int getParallelism() {
+        return PARALLELISM;
+    }
+}
@@ -0,0 +1,155 @@
+package com.maxdemarzi.audit;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Appends {@link AuditRecord}s as JSON lines to <var>decisions.jsonl</var> in a directory:
+ *
+ * <pre>
+ * {"time":1700000000000,"procedure":"decision_tree","tree":"bar entrance","facts":"9f86d0...","answers":["no"],
+ *  "rules":["4:...:1","4:...:2"],"nanos":35000}
+ * </pre>
+ *
+ * The facts are recorded as the SHA-256 of their names and values in name order, so the same facts always have the
+ * same digest without the log holding them. Once the file grows past <var>maximumBytes</var> it is renamed after the
+ * time it was rotated, <var>decisions-&lt;millis&gt;-&lt;n&gt;.jsonl</var>, and a new one is started; only the newest
+ * <var>maximumFiles</var> rotated files are kept. Writes are buffered until {@link #flush}.
+ * Only used by the thread draining the {@link AuditLog}.
+ */
+class AuditFile implements AutoCloseable {
+
+    static final String NAME = "decisions.jsonl";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Path directory;
+    private final long maximumBytes;
+    private final int maximumFiles;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+    private final MessageDigest digest;
+
+    private OutputStream out;
+    private long bytes;
+
+    AuditFile(Path directory, long maximumBytes, int maximumFiles) throws IOException {
+        this.directory = directory;
+        this.maximumBytes = maximumBytes;
+        this.maximumFiles = maximumFiles;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Files.createDirectories(directory);
+        open();
+    }
+
+    private void open() throws IOException {
+        Path file = directory.resolve(NAME);
+        bytes = Files.exists(file) ? Files.size(file) : 0;
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+            1 << 16);
+    }
+
+    void write(AuditRecord record) throws IOException {
+        line.reset();
+        try (JsonGenerator json = JSON.createGenerator(line, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeNumberField("time", record.time);
+            json.writeStringField("procedure", record.procedure);
+            json.writeStringField("tree", record.tree);
+            json.writeStringField("facts", digest(record.facts));
+            json.writeArrayFieldStart("answers");
+            for (String answer : record.answers) {
+                json.writeString(answer);
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("rules");
+            for (String rule : record.rules) {
+                json.writeString(rule);
+            }
+            json.writeEndArray();
+            json.writeNumberField("nanos", record.nanos);
+            json.writeEndObject();
+        }
+        line.write('\n');
+
+        if (bytes > 0 && bytes + line.size() > maximumBytes) {
+            rotate();
+        }
+        line.writeTo(out);
+        bytes += line.size();
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private String digest(Map<String, ?> facts) {
+        digest.reset();
+        for (Map.Entry<String, ?> fact : new TreeMap<>(facts).entrySet()) {
+            digest.update(fact.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '=');
+            digest.update(String.valueOf(fact.getValue()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        long time = System.currentTimeMillis();
+        Path rotated = null;
+        for (int n = 0; rotated == null || Files.exists(rotated); n++) {
+            rotated = directory.resolve(String.format("decisions-%013d-%03d.jsonl", time, n));
+        }
+        Files.move(directory.resolve(NAME), rotated);
+        List<Path> old = rotated();
+        for (int i = 0; i < old.size() - maximumFiles; i++) {
+            Files.deleteIfExists(old.get(i));
+        }
+        open();
+    }
+
+    /**
+     * @return the rotated files, oldest first
+     */
+    List<Path> rotated() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith("decisions-") && name.endsWith(".jsonl");
+                })
+                // Named after when they were rotated, so they sort oldest first
+                .sorted()
+                .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,251 @@
+package com.maxdemarzi.audit;
+
+import com.maxdemarzi.metrics.LatencyHistogram;
+import com.maxdemarzi.results.DecisionResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Records every decision made by the procedures: the tree, a digest of the facts, the Answers and the Rules on the
+ * way to them, and how long it took.
+ *
+ * Request threads only put a record into a lock-free {@link RingBuffer}; a background thread drains it into a
+ * rotating {@link AuditFile} and flushes whenever it runs out of records, so requests never wait on the disk. When the
+ * buffer is full the record is dropped and counted, or with the {@link Policy#BLOCK} policy the request waits for
+ * room in the buffer.
+ *
+ * The shared instance the procedures record to is configured with system properties the first time it is asked for,
+ * unless one was set with {@link #setInstance} before, and is off unless <code>com.maxdemarzi.audit.directory</code>
+ * is set:
+ * <ul>
+ *     <li><code>com.maxdemarzi.audit.capacity</code> records in the buffer, 65536 by default</li>
+ *     <li><code>com.maxdemarzi.audit.policy</code> DROP (the default) or BLOCK when the buffer is full</li>
+ *     <li><code>com.maxdemarzi.audit.file.size</code> bytes before the file is rotated, 100 MB by default</li>
+ *     <li><code>com.maxdemarzi.audit.files</code> rotated files to keep, 10 by default</li>
+ * </ul>
+ */
+public class AuditLog implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(AuditLog.class);
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final long DEFAULT_FILE_SIZE = 100L * 1024 * 1024;
+    public static final int DEFAULT_FILES = 10;
+
+    public enum Policy {
+        // Lose the record, count it and carry on
+        DROP,
+        // Wait for the background thread to make room
+        BLOCK,
+    }
+
+    private static volatile AuditLog instance;
+
+    private final Path directory;
+    private final Policy policy;
+    private final long fileSize;
+    private final int files;
+    private final RingBuffer<AuditRecord> buffer;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Time from being queued to being written
+    private final LatencyHistogram delay = new LatencyHistogram();
+
+    private volatile boolean running;
+    private Thread drain;
+
+    public AuditLog(Path directory, int capacity, Policy policy, long fileSize, int files) {
+        this.directory = directory;
+        this.policy = policy;
+        this.fileSize = fileSize;
+        this.files = files;
+        this.buffer = directory == null ? null : new RingBuffer<>(capacity);
+    }
+
+    private static AuditLog create() {
+        String directory = System.getProperty("com.maxdemarzi.audit.directory");
+        AuditLog audit = new AuditLog(directory == null ? null : Path.of(directory),
+            Integer.getInteger("com.maxdemarzi.audit.capacity", DEFAULT_CAPACITY),
+            Policy.valueOf(System.getProperty("com.maxdemarzi.audit.policy", Policy.DROP.name()).toUpperCase()),
+            Long.getLong("com.maxdemarzi.audit.file.size", DEFAULT_FILE_SIZE),
+            Integer.getInteger("com.maxdemarzi.audit.files", DEFAULT_FILES));
+        if (audit.isEnabled()) {
+            audit.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(audit::close, "decision-audit-shutdown"));
+        }
+        return audit;
+    }
+
+    public static AuditLog getInstance() {
+        AuditLog audit = instance;
+        if (audit == null) {
+            synchronized (AuditLog.class) {
+                if (instance == null) {
+                    instance = create();
+                }
+                audit = instance;
+            }
+        }
+        return audit;
+    }
+
+    /**
+     * Makes the procedures record to the given log instead, which is left to the caller to start and close.
+     *
+     * @return the log they recorded to before, null if none was asked for yet
+     */
+    public static synchronized AuditLog setInstance(AuditLog audit) {
+        AuditLog previous = instance;
+        instance = audit;
+        return previous;
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * Starts the background thread writing the records.
+     */
+    public synchronized void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+        running = true;
+        drain = new Thread(this::drain, "decision-audit");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    /**
+     * Records a decision made in <var>nanos</var>.
+     */
+    public void record(String procedure, String tree, Map<String, ?> facts, List<String> answers, List<String> rules,
+                       long nanos) {
+        if (!isEnabled()) {
+            return;
+        }
+        AuditRecord record = new AuditRecord(procedure, tree, facts, answers, rules, nanos);
+        if (buffer.offer(record)) {
+            return;
+        }
+        if (policy == Policy.BLOCK && running) {
+            while (!buffer.offer(record)) {
+                if (!running || Thread.currentThread().isInterrupted()) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(10_000);
+            }
+            return;
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Records the decision the results of a call make up once the stream is closed, along with the time since the
+     * call <var>started</var>.
+     *
+     * @param decision the Answer and Rules of a single result
+     */
+    public <T> Stream<T> audit(String procedure, String tree, Map<String, ?> facts, long started, Stream<T> results,
+                               Function<T, DecisionResult> decision) {
+        if (!isEnabled()) {
+            return results;
+        }
+        List<String> answers = new ArrayList<>(1);
+        Set<String> rules = new LinkedHashSet<>();
+        return results
+            .peek(result -> {
+                DecisionResult decided = decision.apply(result);
+                answers.add(decided.answer);
+                rules.addAll(decided.rules);
+            })
+            .onClose(() -> record(procedure, tree, facts, answers, new ArrayList<>(rules), System.nanoTime() - started));
+    }
+
+    private void drain() {
+        try (AuditFile file = new AuditFile(directory, fileSize, files)) {
+            while (running || buffer.size() > 0) {
+                AuditRecord record = buffer.poll();
+                if (record == null) {
+                    // Caught up, so make what was written so far durable before waiting for more
+                    file.flush();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+                try {
+                    file.write(record);
+                    written.incrementAndGet();
+                    delay.record(System.nanoTime() - record.queued);
+                } catch (IOException e) {
+                    if (failed.getAndIncrement() == 0) {
+                        log.error("could not write decision to the audit log in {}: {}", directory, e.getMessage());
+                    }
+                }
+            }
+            file.flush();
+        } catch (IOException e) {
+            log.error("could not open the audit log in {}: {}", directory, e.getMessage());
+            running = false;
+        }
+    }
+
+    /**
+     * Stops taking records and waits for the ones already taken to be written.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = drain;
+        }
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getPending() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    public LatencyHistogram getDelay() {
+        return delay;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
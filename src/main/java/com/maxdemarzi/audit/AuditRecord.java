@@ -0,0 +1,33 @@
+package com.maxdemarzi.audit;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A decision as it is handed to the {@link AuditLog}. The facts are kept as they were given, they are only digested
+ * when the record is written, off the request thread.
+ */
+class AuditRecord {
+
+    final long time;
+    final String procedure;
+    final String tree;
+    final Map<String, ?> facts;
+    final List<String> answers;
+    final List<String> rules;
+    final long nanos;
+    // When it was queued, to measure how long records wait to be written
+    final long queued;
+
+    AuditRecord(String procedure, String tree, Map<String, ?> facts, List<String> answers, List<String> rules,
+                long nanos) {
+        this.time = System.currentTimeMillis();
+        this.procedure = procedure;
+        this.tree = tree;
+        this.facts = facts;
+        this.answers = answers;
+        this.rules = rules;
+        this.nanos = nanos;
+        this.queued = System.nanoTime();
+    }
+}
@@ -0,0 +1,85 @@
+package com.maxdemarzi.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ *
+ * Every slot carries a sequence number telling whose turn it is: producers claim the next position with a CAS and
+ * only write into its slot once the consumer has released it, the consumer only reads a slot once its producer has
+ * published it. A full buffer fails the offer instead of waiting, so callers decide what to do about it.
+ */
+class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only moved by the consumer
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(slot, element);
+                    // Publishes the element to the consumer
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The consumer has not released this slot from the previous lap yet
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the buffer is empty. Must only be called by the consumer.
+     */
+    E poll() {
+        long position = head;
+        int slot = (int) (position & mask);
+        if (sequences.get(slot) != position + 1) {
+            return null;
+        }
+        E element = elements.get(slot);
+        elements.lazySet(slot, null);
+        // Hands the slot to the producer of the next lap
+        sequences.lazySet(slot, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
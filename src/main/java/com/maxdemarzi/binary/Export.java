@@ -0,0 +1,72 @@
+package com.maxdemarzi.binary;
+
+import com.maxdemarzi.model.TreeModel;
+import com.maxdemarzi.results.ExportResult;
+import com.maxdemarzi.schema.Labels;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Writes trees to files on the server, so it is off unless Neo4j is started with
+ * <code>-Dcom.maxdemarzi.export.enabled=true</code> and <code>-Dcom.maxdemarzi.export.directory</code>.
+ * Files are relative to that directory and can't leave it.
+ */
+public class Export {
+
+    @Context
+    public Transaction txn;
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.export.tree", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.export.tree(tree, file) - write a tree to a binary file that can be evaluated without the database")
+    public Stream<ExportResult> tree(@Name("tree") String id, @Name("file") String file) throws IOException {
+        Path path = resolve(file);
+        // Which Decision Tree are we interested in?
+        Node tree = txn.findNode(Labels.Tree, "id", id);
+        if (tree == null) {
+            return Stream.empty();
+        }
+        TreeModel model = TreeModel.load(tree);
+        long hash = TreeFile.write(model, path);
+        long bytes = Files.size(path);
+        log.info("exported tree:{} version:{} hash:{} to {} in {} bytes", id, model.getVersion(), hash, path, bytes);
+        return Stream.of(new ExportResult(id, model.getVersion(), hash, path.toString(), model.size(), bytes));
+    }
+
+    /**
+     * @return the file in the export directory
+     */
+    private static Path resolve(String file) {
+        String directory = System.getProperty("com.maxdemarzi.export.directory");
+        if (!Boolean.getBoolean("com.maxdemarzi.export.enabled") || directory == null) {
+            throw new IllegalStateException("Exporting trees is disabled, start Neo4j with "
+                + "-Dcom.maxdemarzi.export.enabled=true and -Dcom.maxdemarzi.export.directory");
+        }
+        Path relative = Path.of(file);
+        if (file.isEmpty() || relative.isAbsolute() || Arrays.asList(file.split("[/\\\\]")).contains("..")) {
+            throw new IllegalArgumentException("File " + file + " must be a relative path in the export directory");
+        }
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        Path path = root.resolve(relative).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("File " + file + " must be a relative path in the export directory");
+        }
+        return path;
+    }
+}
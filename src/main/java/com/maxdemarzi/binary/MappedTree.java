@@ -0,0 +1,204 @@
+package com.maxdemarzi.binary;
+
+import com.maxdemarzi.model.TreeModel;
+import com.maxdemarzi.results.DecisionResult;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a Tree straight out of a memory-mapped {@link TreeFile}, without a database.
+ *
+ * Nothing is copied out of the file when it is opened; nodes are read where they are as the tree is walked, strings
+ * are decoded the first time they are needed and Rules are compiled the first time they are evaluated. Trees are
+ * walked like the {@link com.maxdemarzi.DecisionTreeExpander} does for expressions and the
+ * {@link com.maxdemarzi.DecisionTreeExpanderTwo} for scripts, visiting each node once. To switch to a new version
+ * of a tree, open its file and swap the instance; instances are immutable and can be shared between threads.
+ */
+public class MappedTree {
+
+    private static final Logger log = LogManager.getLogger(MappedTree.class);
+
+    private final ByteBuffer buffer;
+    private final long hash;
+    private final int strings;
+    private final int nodes;
+    private final String treeId;
+
+    // Filled in as they are first needed, racing threads just do the same work twice.
+    private final String[] decoded;
+    private final CompiledRule[] rules;
+    private final boolean[] broken;
+
+    private MappedTree(ByteBuffer buffer) {
+        if (buffer.limit() < TreeFile.HEADER || buffer.getInt(0) != TreeFile.MAGIC) {
+            throw new IllegalArgumentException("Not a tree file");
+        }
+        if (buffer.getInt(4) != TreeFile.FORMAT) {
+            throw new IllegalArgumentException("Unsupported tree file format " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.hash = buffer.getLong(8);
+        this.strings = buffer.getInt(20);
+        this.nodes = buffer.getInt(24);
+        this.decoded = new String[strings];
+        this.rules = new CompiledRule[nodes];
+        this.broken = new boolean[nodes];
+        this.treeId = string(buffer.getInt(16));
+    }
+
+    public static MappedTree open(Path file) throws IOException {
+        // The mapping stays valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedTree(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public List<DecisionResult> evaluate(Map<String, ?> facts) {
+        return evaluate(facts, false);
+    }
+
+    /**
+     * @return a result for every Answer reached with the given facts, visiting each node once,
+     * or only the first Answer reached in priority order when <var>firstMatch</var> is set
+     */
+    public List<DecisionResult> evaluate(Map<String, ?> facts, boolean firstMatch) {
+        List<DecisionResult> results = new ArrayList<>();
+        visit(0, facts, new boolean[nodes], new ArrayList<>(), results, firstMatch);
+        return results;
+    }
+
+    private void visit(int n, Map<String, ?> facts, boolean[] visited, ArrayList<String> path,
+                       List<DecisionResult> results, boolean firstMatch) {
+        if (visited[n] || (firstMatch && !results.isEmpty())) {
+            return;
+        }
+        visited[n] = true;
+
+        int node = node(n);
+        String outcome;
+        switch (TreeFile.kind(buffer.get(node))) {
+            case ANSWER:
+                results.add(new DecisionResult(string(buffer.getInt(node + 5)), new ArrayList<>(path)));
+                return;
+            case BRANCH:
+                outcome = RelationshipTypes.HAS.name();
+                break;
+            case EXPRESSION:
+            case SCRIPT:
+                outcome = choose(n, node, facts);
+                if (outcome == null) {
+                    return;
+                }
+                path.add(string(buffer.getInt(node + 1)));
+                break;
+            default:
+                return;
+        }
+
+        // Skip kind and the five strings to get to the outcomes
+        int offset = node + 21;
+        int outcomes = buffer.getInt(offset);
+        offset += 4;
+        for (int o = 0; o < outcomes; o++) {
+            int type = buffer.getInt(offset);
+            int targets = buffer.getInt(offset + 4);
+            offset += 8;
+            if (outcome.equals(string(type))) {
+                for (int t = 0; t < targets; t++) {
+                    visit(buffer.getInt(offset + 4 * t), facts, visited, path, results, firstMatch);
+                }
+            }
+            offset += 4 * targets;
+        }
+
+        if (!outcome.equals(RelationshipTypes.HAS.name())) {
+            path.remove(path.size() - 1);
+        }
+    }
+
+    /**
+     * @return the relationship type the rule at <var>n</var> follows, or null if it can't be evaluated
+     */
+    private String choose(int n, int node, Map<String, ?> facts) {
+        CompiledRule rule = rule(n, node);
+        if (rule == null) {
+            return null;
+        }
+        try {
+            Object[] arguments = rule.arguments(facts);
+            if (rule.getKind() == CompiledRule.Kind.EXPRESSION) {
+                return rule.isTrue(arguments) ? RelationshipTypes.IS_TRUE.name() : RelationshipTypes.IS_FALSE.name();
+            }
+            return rule.choosePath(arguments);
+        } catch (Exception e) {
+            // Could not continue this way!
+            return null;
+        }
+    }
+
+    private CompiledRule rule(int n, int node) {
+        CompiledRule rule = rules[n];
+        if (rule != null || broken[n]) {
+            return rule;
+        }
+        String parameterNames = string(buffer.getInt(node + 9));
+        String parameterTypes = string(buffer.getInt(node + 13));
+        String source = string(buffer.getInt(node + 17));
+        try {
+            rule = TreeFile.kind(buffer.get(node)) == TreeModel.Kind.SCRIPT
+                ? CompiledRule.script(parameterNames, parameterTypes, source)
+                : CompiledRule.expression(parameterNames, parameterTypes, source);
+            rules[n] = rule;
+        } catch (Exception e) {
+            log.error("error occurred while cooking rule {}: {}", string(buffer.getInt(node + 1)), e.getMessage());
+            broken[n] = true;
+        }
+        return rule;
+    }
+
+    private int node(int n) {
+        return buffer.getInt(TreeFile.HEADER + 4 * strings + 4 * n);
+    }
+
+    private String string(int s) {
+        if (s < 0) {
+            return null;
+        }
+        String string = decoded[s];
+        if (string == null) {
+            int offset = buffer.getInt(TreeFile.HEADER + 4 * s);
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            buffer.duplicate().position(offset + 4).get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+            decoded[s] = string;
+        }
+        return string;
+    }
+
+    public String getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * @return the content hash of the file, the same for every file written from the same tree
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+}
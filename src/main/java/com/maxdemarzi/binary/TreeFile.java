@@ -0,0 +1,177 @@
+package com.maxdemarzi.binary;
+
+import com.maxdemarzi.model.TreeModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link TreeModel} into the binary format read by {@link MappedTree}. All numbers are big endian:
+ *
+ * <pre>
+ * int magic "DTRE", int format, long content hash, int tree id string, int strings, int nodes
+ * int[strings] offset of each string, int[nodes] offset of each node
+ * every string:  int length, UTF-8 bytes
+ * every node:    byte kind, int element id, int name, int parameter names, int parameter types, int source,
+ *                int outcomes, and for every outcome: int relationship type, int targets, int[targets] node numbers
+ * </pre>
+ *
+ * Strings are referred to by their number, -1 for none, and nodes are numbered as in the {@link TreeModel}. Node kinds
+ * are written as the codes below, which never change meaning. The content hash is the start of a SHA-256 of the tree
+ * id, strings and nodes, so exporting a tree again gets the same hash, across restarts too, as long as the tree is
+ * unchanged. The file is written next to its destination and moved over it, so a reader never maps a half written
+ * file.
+ */
+public final class TreeFile {
+
+    public static final int MAGIC = 0x44545245;
+    public static final int FORMAT = 2;
+
+    // Node kinds
+    static final byte ANSWER = 1;
+    static final byte BRANCH = 2;
+    static final byte EXPRESSION = 3;
+    static final byte SCRIPT = 4;
+    static final byte DEAD_END = 5;
+
+    // magic, format, hash, tree id, strings, nodes
+    static final int HEADER = 4 + 4 + 8 + 4 + 4 + 4;
+
+    private TreeFile() {}
+
+    /**
+     * @return the content hash of the file written
+     */
+    public static long write(TreeModel model, Path file) throws IOException {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> numbers = new HashMap<>();
+
+        ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        DataOutputStream nodes = new DataOutputStream(nodeBytes);
+        int[] nodeOffsets = new int[model.size()];
+        for (TreeModel.Element element : model.getElements()) {
+            nodeOffsets[element.index] = nodes.size();
+            nodes.writeByte(code(element.kind));
+            nodes.writeInt(string(element.elementId, strings, numbers));
+            nodes.writeInt(string(element.name, strings, numbers));
+            nodes.writeInt(string(element.parameterNames, strings, numbers));
+            nodes.writeInt(string(element.parameterTypes, strings, numbers));
+            nodes.writeInt(string(element.source, strings, numbers));
+            nodes.writeInt(element.targets.size());
+            for (Map.Entry<String, int[]> outcome : element.targets.entrySet()) {
+                nodes.writeInt(string(outcome.getKey(), strings, numbers));
+                nodes.writeInt(outcome.getValue().length);
+                for (int target : outcome.getValue()) {
+                    nodes.writeInt(target);
+                }
+            }
+        }
+        int treeId = string(model.getTreeId(), strings, numbers);
+
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream encoded = new DataOutputStream(stringBytes);
+        int[] stringOffsets = new int[strings.size()];
+        for (int s = 0; s < strings.size(); s++) {
+            stringOffsets[s] = encoded.size();
+            byte[] bytes = strings.get(s).getBytes(StandardCharsets.UTF_8);
+            encoded.writeInt(bytes.length);
+            encoded.write(bytes);
+        }
+
+        long hash = hash(treeId, stringBytes, nodeBytes);
+        int stringsStart = HEADER + 4 * strings.size() + 4 * model.size();
+        int nodesStart = stringsStart + encoded.size();
+
+        Path written = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(written))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(hash);
+            out.writeInt(treeId);
+            out.writeInt(strings.size());
+            out.writeInt(model.size());
+            for (int offset : stringOffsets) {
+                out.writeInt(stringsStart + offset);
+            }
+            for (int offset : nodeOffsets) {
+                out.writeInt(nodesStart + offset);
+            }
+            stringBytes.writeTo(out);
+            nodeBytes.writeTo(out);
+        }
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return hash;
+    }
+
+    static byte code(TreeModel.Kind kind) {
+        switch (kind) {
+            case ANSWER:
+                return ANSWER;
+            case BRANCH:
+                return BRANCH;
+            case EXPRESSION:
+                return EXPRESSION;
+            case SCRIPT:
+                return SCRIPT;
+            default:
+                return DEAD_END;
+        }
+    }
+
+    /**
+     * @return the kind written as the given code, codes this format doesn't know are dead ends
+     */
+    static TreeModel.Kind kind(byte code) {
+        switch (code) {
+            case ANSWER:
+                return TreeModel.Kind.ANSWER;
+            case BRANCH:
+                return TreeModel.Kind.BRANCH;
+            case EXPRESSION:
+                return TreeModel.Kind.EXPRESSION;
+            case SCRIPT:
+                return TreeModel.Kind.SCRIPT;
+            default:
+                return TreeModel.Kind.DEAD_END;
+        }
+    }
+
+    private static long hash(int treeId, ByteArrayOutputStream strings, ByteArrayOutputStream nodes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(4).putInt(treeId).array());
+            digest.update(strings.toByteArray());
+            digest.update(nodes.toByteArray());
+            byte[] hash = digest.digest();
+            long value = 0;
+            for (int b = 0; b < 8; b++) {
+                value = (value << 8) | (hash[b] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int string(String value, List<String> strings, Map<String, Integer> numbers) {
+        if (value == null) {
+            return -1;
+        }
+        return numbers.computeIfAbsent(value, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+}
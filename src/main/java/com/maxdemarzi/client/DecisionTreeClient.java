@@ -0,0 +1,321 @@
+package com.maxdemarzi.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.AuthToken;
+import org.neo4j.driver.Config;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.async.AsyncSession;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks a Neo4j server with these procedures for decisions without a round trip per decision.
+ *
+ * Requests for the same Tree made within <var>window</var> of each other are sent together as a single call to
+ * decision_tree_batch_parallel, or as soon as <var>batchSize</var> of them are waiting. Calls run on async sessions
+ * of the driver, which pools the connections, so several batches can be in flight at once. At most
+ * <var>maxPending</var> requests are waiting or in flight, so a slow server pushes back on callers instead of letting
+ * requests pile up: {@link #decide} never blocks, it fails right away with a {@link RejectedExecutionException} when
+ * there are too many, while {@link #decideBlocking} waits for up to <var>timeout</var> for one of them to finish.
+ * Only use the latter on threads that may block, never on an event loop. Decisions for a Tree that doesn't exist
+ * fail with a {@link NoSuchElementException}, and every decision of a batch the driver could not send fails too.
+ */
+public class DecisionTreeClient implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(DecisionTreeClient.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(2);
+    public static final int DEFAULT_MAX_PENDING = 10_000;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final String QUERY =
+        "CALL com.maxdemarzi.traverse.decision_tree_batch_parallel($tree, $facts, 1, $firstMatch) yield index, answers " +
+        "return index, answers";
+
+    private final Driver driver;
+    private final boolean ownsDriver;
+    private final int batchSize;
+    private final long window;
+    private final long timeout;
+    private final int maxPending;
+    private final Semaphore pending;
+    private volatile boolean closed;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "decision-tree-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Waiting requests by tree and firstMatch, guarded by this.
+    private final Map<Batch.Key, Batch> batches = new HashMap<>();
+
+    public DecisionTreeClient(Driver driver) {
+        this(driver, false, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW, DEFAULT_MAX_PENDING, DEFAULT_TIMEOUT);
+    }
+
+    public DecisionTreeClient(Driver driver, int batchSize, Duration window, int maxPending, Duration timeout) {
+        this(driver, false, batchSize, window, maxPending, timeout);
+    }
+
+    private DecisionTreeClient(Driver driver, boolean ownsDriver, int batchSize, Duration window, int maxPending,
+                               Duration timeout) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be at least 1 but was " + maxPending);
+        }
+        this.driver = driver;
+        this.ownsDriver = ownsDriver;
+        this.batchSize = batchSize;
+        this.window = window.toNanos();
+        this.timeout = timeout.toNanos();
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Connects with a pool of at most <var>connections</var> connections, closed together with the client.
+     */
+    public static DecisionTreeClient connect(String uri, AuthToken auth, int connections) {
+        Driver driver = GraphDatabase.driver(uri, auth, Config.builder().withMaxConnectionPoolSize(connections).build());
+        return new DecisionTreeClient(driver, true, DEFAULT_BATCH_SIZE, DEFAULT_WINDOW, DEFAULT_MAX_PENDING, DEFAULT_TIMEOUT);
+    }
+
+    public CompletionStage<List<String>> decide(String tree, Map<String, ?> facts) {
+        return decide(tree, facts, false);
+    }
+
+    /**
+     * @return the ids of the Answers reached in the given Tree with these facts, once the batch it was sent in returns,
+     * or a stage failed with a {@link RejectedExecutionException} if <var>maxPending</var> decisions are pending
+     */
+    public CompletionStage<List<String>> decide(String tree, Map<String, ?> facts, boolean firstMatch) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("The client is closed"));
+        }
+        if (!pending.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending decisions"));
+        }
+        return submit(tree, facts, firstMatch);
+    }
+
+    /**
+     * Like {@link #decide}, but blocks the calling thread for up to <var>timeout</var> while <var>maxPending</var>
+     * decisions are pending.
+     */
+    public CompletionStage<List<String>> decideBlocking(String tree, Map<String, ?> facts, boolean firstMatch) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("The client is closed"));
+        }
+        try {
+            if (!pending.tryAcquire(timeout, TimeUnit.NANOSECONDS)) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending decisions"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        return submit(tree, facts, firstMatch);
+    }
+
+    /**
+     * Adds the request to the batch of its Tree, holding one of the pending permits until it completes.
+     */
+    private CompletionStage<List<String>> submit(String tree, Map<String, ?> facts, boolean firstMatch) {
+        CompletableFuture<List<String>> decision = new CompletableFuture<>();
+        decision.whenComplete((answers, error) -> pending.release());
+        Batch full = null;
+        synchronized (this) {
+            // Closed while we were waiting for a permit
+            if (closed) {
+                decision.completeExceptionally(new RejectedExecutionException("The client is closed"));
+                return decision;
+            }
+            Batch.Key key = new Batch.Key(tree, firstMatch);
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(key);
+                batches.put(key, batch);
+                Batch scheduled = batch;
+                scheduler.schedule(() -> flush(scheduled), window, TimeUnit.NANOSECONDS);
+            }
+            batch.add(facts, decision);
+            if (batch.size() >= batchSize) {
+                batches.remove(key);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return decision;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            // Already sent because it filled up
+            if (!batches.remove(batch.key, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends the batch, completing every one of its decisions whatever happens, so none of them holds on to its
+     * pending permit forever.
+     */
+    private void send(Batch batch) {
+        AsyncSession session = null;
+        try {
+            session = driver.session(AsyncSession.class,
+                SessionConfig.builder().withDefaultAccessMode(AccessMode.READ).build());
+            Map<String, Object> parameters = Map.of("tree", batch.key.tree, "facts", batch.facts,
+                "firstMatch", batch.key.firstMatch);
+            AsyncSession opened = session;
+            session.executeReadAsync(tx -> tx.runAsync(QUERY, parameters)
+                    .thenCompose(cursor -> cursor.listAsync(record -> record)))
+                .whenComplete((records, error) -> {
+                    try {
+                        if (error != null) {
+                            fail(batch, error);
+                        } else {
+                            complete(batch, records);
+                        }
+                    } catch (RuntimeException e) {
+                        fail(batch, e);
+                    } finally {
+                        opened.closeAsync();
+                    }
+                });
+        } catch (RuntimeException e) {
+            fail(batch, e);
+            if (session != null) {
+                session.closeAsync();
+            }
+        }
+    }
+
+    private static void complete(Batch batch, List<Record> records) {
+        // Every row of the batch comes back, even without Answers, unless the Tree doesn't exist
+        if (records.isEmpty() && batch.size() > 0) {
+            fail(batch, new NoSuchElementException("Tree " + batch.key.tree + " not found"));
+            return;
+        }
+        List<List<String>> answers = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            answers.add(null);
+        }
+        records.forEach(record -> answers.set(record.get("index").asInt(),
+            record.get("answers").asList(value -> value.asString())));
+        for (int i = 0; i < batch.size(); i++) {
+            if (answers.get(i) == null) {
+                batch.decisions.get(i).completeExceptionally(
+                    new IllegalStateException("No decision came back for facts " + i + " of the batch"));
+            } else {
+                batch.decisions.get(i).complete(answers.get(i));
+            }
+        }
+    }
+
+    private static void fail(Batch batch, Throwable error) {
+        log.error("decision batch of {} for tree {} failed: {}", batch.size(), batch.key.tree, error.getMessage());
+        // Decisions that already completed stay as they were
+        batch.decisions.forEach(decision -> decision.completeExceptionally(error));
+    }
+
+    /**
+     * Sends the requests still waiting and waits for up to <var>timeout</var> for every pending decision to
+     * complete, so none of them outlives the client.
+     */
+    @Override
+    public void close() {
+        List<Batch> remaining;
+        synchronized (this) {
+            closed = true;
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        remaining.forEach(this::send);
+        scheduler.shutdown();
+        // Every permit is back once every decision completed
+        try {
+            if (pending.tryAcquire(maxPending, timeout, TimeUnit.NANOSECONDS)) {
+                pending.release(maxPending);
+            } else {
+                log.warn("closing with {} decisions still pending", maxPending - pending.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ownsDriver) {
+                driver.close();
+            }
+        }
+    }
+
+    private static class Batch {
+        private final Key key;
+        private final List<Map<String, ?>> facts = new ArrayList<>();
+        private final List<CompletableFuture<List<String>>> decisions = new ArrayList<>();
+
+        Batch(Key key) {
+            this.key = key;
+        }
+
+        void add(Map<String, ?> facts, CompletableFuture<List<String>> decision) {
+            this.facts.add(facts);
+            this.decisions.add(decision);
+        }
+
+        int size() {
+            return decisions.size();
+        }
+
+        private static class Key {
+            private final String tree;
+            private final boolean firstMatch;
+
+            Key(String tree, boolean firstMatch) {
+                this.tree = tree;
+                this.firstMatch = firstMatch;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) {
+                    return true;
+                }
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key other = (Key) o;
+                return firstMatch == other.firstMatch && tree.equals(other.tree);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * tree.hashCode() + Boolean.hashCode(firstMatch);
+            }
+        }
+    }
+}
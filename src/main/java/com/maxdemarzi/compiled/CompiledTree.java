@@ -0,0 +1,115 @@
+package com.maxdemarzi.compiled;
+
+import com.maxdemarzi.metrics.RuleMetrics;
+import com.maxdemarzi.results.DecisionResult;
+import com.maxdemarzi.rules.CompiledRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of the classes generated by the {@link TreeCompiler}. Each generated class holds a whole Tree, every
+ * node is a method and every relationship a call, so evaluating the tree is a single method call.
+ */
+public abstract class CompiledTree {
+
+    // Answer ids and Rule element ids by node index, filled in by the TreeCompiler.
+    protected String[] answers;
+    protected String[] rules;
+    // Only used when the rules could not be inlined into the generated class.
+    protected CompiledRule[] compiledRules;
+    // Where the inlined rules record their evaluations.
+    protected RuleMetrics[] ruleMetrics;
+
+    private int nodes;
+    private long version;
+
+    void init(int nodes, String[] answers, String[] rules, CompiledRule[] compiledRules, long version) {
+        this.nodes = nodes;
+        this.answers = answers;
+        this.rules = rules;
+        this.compiledRules = compiledRules;
+        this.version = version;
+        this.ruleMetrics = new RuleMetrics[nodes];
+        for (int i = 0; i < nodes; i++) {
+            if (compiledRules[i] != null) {
+                RuleMetrics metrics = compiledRules[i].getMetrics();
+                ruleMetrics[i] = metrics == null ? new RuleMetrics() : metrics;
+            }
+        }
+    }
+
+    /**
+     * @return a result for every Answer reached with the given facts, with the Rules on the way there
+     */
+    public List<DecisionResult> evaluate(Map<String, ?> facts) {
+        return evaluate(facts, false);
+    }
+
+    /**
+     * @return the results, or only the first Answer reached in priority order when <var>firstMatch</var> is set
+     */
+    public List<DecisionResult> evaluate(Map<String, ?> facts, boolean firstMatch) {
+        Walk walk = new Walk(facts, nodes, firstMatch);
+        run(walk);
+        return walk.results;
+    }
+
+    protected abstract void run(Walk walk);
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * State of a single evaluation. Like the traversal framework, each node is only visited once per evaluation.
+     * In first-match mode no node is entered any more once an Answer was reached.
+     */
+    public static final class Walk {
+
+        private final Map<String, ?> facts;
+        private final boolean firstMatch;
+        private final boolean[] visited;
+        private final ArrayList<String> path = new ArrayList<>();
+        private final List<DecisionResult> results = new ArrayList<>();
+
+        Walk(Map<String, ?> facts, int nodes, boolean firstMatch) {
+            this.facts = facts;
+            this.firstMatch = firstMatch;
+            this.visited = new boolean[nodes];
+        }
+
+        public Map<String, ?> facts() {
+            return facts;
+        }
+
+        public Object fact(String name) {
+            return facts.get(name);
+        }
+
+        public boolean enter(int node) {
+            if (visited[node] || (firstMatch && !results.isEmpty())) {
+                return false;
+            }
+            visited[node] = true;
+            return true;
+        }
+
+        public void push(String rule) {
+            path.add(rule);
+        }
+
+        public void pop() {
+            path.remove(path.size() - 1);
+        }
+
+        public void answer(String answer) {
+            results.add(new DecisionResult(answer, new ArrayList<>(path)));
+        }
+    }
+}
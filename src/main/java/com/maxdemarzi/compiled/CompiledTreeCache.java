@@ -0,0 +1,41 @@
+package com.maxdemarzi.compiled;
+
+import com.maxdemarzi.extension.TreeVersion;
+import com.maxdemarzi.extension.VersionedCache;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.model.TreeModel;
+import org.codehaus.commons.compiler.CompileException;
+import org.neo4j.graphdb.Node;
+
+/**
+ * Keeps the generated class of each Tree, keyed by the element id of the Tree node.
+ * A class is compiled once per {@link TreeVersion} of its Tree, callers asking for it while it compiles wait for it.
+ * Transactions that changed the tree but have not committed yet get a class of their own, which is not kept.
+ */
+public class CompiledTreeCache {
+
+    private static final CompiledTreeCache INSTANCE = new CompiledTreeCache();
+
+    private final VersionedCache<CompiledTree, CompileException> trees = new VersionedCache<>(CompileException.class);
+
+    public static CompiledTreeCache getInstance() {
+        return INSTANCE;
+    }
+
+    public CompiledTree get(Node tree) throws CompileException {
+        return trees.get(tree, MetricsRegistry.getInstance().cache(MetricsRegistry.COMPILED_TREES),
+            node -> TreeCompiler.compile(TreeModel.load(node)));
+    }
+
+    public void evict(String treeId) {
+        trees.evict(treeId);
+    }
+
+    public void clear() {
+        trees.clear();
+    }
+
+    public int size() {
+        return trees.size();
+    }
+}
@@ -0,0 +1,237 @@
+package com.maxdemarzi.compiled;
+
+import com.maxdemarzi.model.TreeModel;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.Converters;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.ClassBodyEvaluator;
+
+import java.util.Map;
+
+/**
+ * Generates and cooks a single class for a whole Tree. Every node becomes a method: Answers record a result,
+ * HAS branches call each of their children, and Rules evaluate their expression or script inline and call the
+ * methods of the nodes on the relationships they choose.
+ */
+public class TreeCompiler {
+
+    private static final Logger log = LogManager.getLogger(TreeCompiler.class);
+
+    private static final String WALK = CompiledTree.Walk.class.getCanonicalName();
+    private static final String CONVERTERS = Converters.class.getCanonicalName();
+
+    protected TreeCompiler() {}
+
+    public static CompiledTree compile(TreeModel model) throws CompileException {
+        // Rules that fail to compile on their own are dead ends, just like in the expanders.
+        CompiledRule[] compiledRules = new CompiledRule[model.size()];
+        String[] answers = new String[model.size()];
+        String[] rules = new String[model.size()];
+        for (TreeModel.Element element : model.getElements()) {
+            if (element.kind == TreeModel.Kind.ANSWER) {
+                answers[element.index] = element.name;
+            } else if (element.isRule()) {
+                rules[element.index] = element.elementId;
+                compiledRules[element.index] = element.compile();
+            }
+        }
+
+        CompiledTree compiled;
+        try {
+            compiled = cook(generate(model, compiledRules, true));
+        } catch (CompileException e) {
+            // Some rule sources (scripts declaring their own methods for example) can't be pasted into a method
+            // body, fall back to calling the separately compiled rules from the generated class.
+            log.warn("could not inline the rules of tree {}, delegating to compiled rules: {}",
+                model.getTreeId(), e.getMessage());
+            compiled = cook(generate(model, compiledRules, false));
+        }
+        compiled.init(model.size(), answers, rules, compiledRules, model.getVersion());
+        return compiled;
+    }
+
+
+    private static CompiledTree cook(String body) throws CompileException {
+        ClassBodyEvaluator cbe = new ClassBodyEvaluator();
+        cbe.setParentClassLoader(CompiledTree.class.getClassLoader());
+        cbe.setExtendedClass(CompiledTree.class);
+        cbe.cook(body);
+        try {
+            return (CompiledTree) cbe.getClazz().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String generate(TreeModel model, CompiledRule[] compiledRules, boolean inline) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("protected void run(").append(WALK).append(" w) {\n");
+        sb.append("    visit0(w);\n");
+        sb.append("}\n\n");
+
+        for (TreeModel.Element element : model.getElements()) {
+            int i = element.index;
+            sb.append("private void visit").append(i).append('(').append(WALK).append(" w) {\n");
+            sb.append("    if (!w.enter(").append(i).append(")) return;\n");
+            switch (element.kind) {
+                case ANSWER:
+                    sb.append("    w.answer(answers[").append(i).append("]);\n");
+                    break;
+                case BRANCH:
+                    visitAll(sb, element.targets(RelationshipTypes.HAS.name()), "    ");
+                    break;
+                case EXPRESSION:
+                    if (compiledRules[i] != null) {
+                        expression(sb, element, compiledRules[i], inline);
+                    }
+                    break;
+                case SCRIPT:
+                    if (compiledRules[i] != null) {
+                        script(sb, element, compiledRules[i], inline);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            sb.append("}\n\n");
+
+            if (inline && element.isRule() && compiledRules[i] != null) {
+                ruleMethod(sb, element, compiledRules[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void expression(StringBuilder sb, TreeModel.Element element, CompiledRule rule, boolean inline) {
+        int i = element.index;
+        sb.append("    boolean outcome;\n");
+        if (inline) {
+            // Compiled rules record their own metrics, inlined ones have to do it here.
+            sb.append("    long started = System.nanoTime();\n");
+            sb.append("    try {\n");
+            sb.append("        outcome = rule").append(i).append('(').append(arguments(rule)).append(");\n");
+            sb.append("    } catch (Exception e) {\n");
+            sb.append("        ruleMetrics[").append(i).append("].error(System.nanoTime() - started);\n");
+            sb.append("        return;\n");
+            sb.append("    }\n");
+            sb.append("    ruleMetrics[").append(i).append("].expression(System.nanoTime() - started, outcome);\n");
+        } else {
+            sb.append("    try {\n");
+            sb.append("        outcome = compiledRules[").append(i).append("].isTrue(compiledRules[").append(i)
+                .append("].arguments(w.facts()));\n");
+            sb.append("    } catch (Exception e) {\n");
+            sb.append("        return;\n");
+            sb.append("    }\n");
+        }
+        sb.append("    w.push(rules[").append(i).append("]);\n");
+        sb.append("    if (outcome) {\n");
+        visitAll(sb, element.targets(RelationshipTypes.IS_TRUE.name()), "        ");
+        sb.append("    } else {\n");
+        visitAll(sb, element.targets(RelationshipTypes.IS_FALSE.name()), "        ");
+        sb.append("    }\n");
+        sb.append("    w.pop();\n");
+    }
+
+    private static void script(StringBuilder sb, TreeModel.Element element, CompiledRule rule, boolean inline) {
+        int i = element.index;
+        sb.append("    String outcome;\n");
+        if (inline) {
+            // Compiled rules record their own metrics, inlined ones have to do it here.
+            sb.append("    long started = System.nanoTime();\n");
+            sb.append("    try {\n");
+            sb.append("        outcome = rule").append(i).append('(').append(arguments(rule)).append(");\n");
+            sb.append("    } catch (Exception e) {\n");
+            sb.append("        ruleMetrics[").append(i).append("].error(System.nanoTime() - started);\n");
+            sb.append("        return;\n");
+            sb.append("    }\n");
+            sb.append("    ruleMetrics[").append(i).append("].script(System.nanoTime() - started, outcome);\n");
+        } else {
+            sb.append("    try {\n");
+            sb.append("        outcome = compiledRules[").append(i).append("].choosePath(compiledRules[").append(i)
+                .append("].arguments(w.facts()));\n");
+            sb.append("    } catch (Exception e) {\n");
+            sb.append("        return;\n");
+            sb.append("    }\n");
+        }
+        sb.append("    w.push(rules[").append(i).append("]);\n");
+        String prefix = "    ";
+        for (Map.Entry<String, int[]> outcome : element.targets.entrySet()) {
+            sb.append(prefix).append("if (").append(literal(outcome.getKey())).append(".equals(outcome)) {\n");
+            visitAll(sb, outcome.getValue(), "        ");
+            prefix = "    } else ";
+        }
+        if (!element.targets.isEmpty()) {
+            sb.append("    }\n");
+        }
+        sb.append("    w.pop();\n");
+    }
+
+    private static void ruleMethod(StringBuilder sb, TreeModel.Element element, CompiledRule rule) {
+        String[] names = rule.getParameterNames();
+        Class<?>[] types = rule.getParameterTypes();
+        sb.append("private static ")
+            .append(element.kind == TreeModel.Kind.SCRIPT ? "String" : "boolean")
+            .append(" rule").append(element.index).append('(');
+        for (int j = 0; j < names.length; j++) {
+            if (j > 0) {
+                sb.append(", ");
+            }
+            sb.append(types[j].getCanonicalName()).append(' ').append(names[j]);
+        }
+        sb.append(") throws Exception {\n");
+        if (element.kind == TreeModel.Kind.SCRIPT) {
+            sb.append(rule.getSource()).append('\n');
+        } else {
+            sb.append("    return (").append(rule.getSource()).append(");\n");
+        }
+        sb.append("}\n\n");
+    }
+
+    private static void visitAll(StringBuilder sb, int[] targets, String indent) {
+        for (int target : targets) {
+            sb.append(indent).append("visit").append(target).append("(w);\n");
+        }
+    }
+
+    /**
+     * @return the source converting each fact to its parameter type with the {@link Converters}
+     */
+    private static String arguments(CompiledRule rule) {
+        String[] names = rule.getParameterNames();
+        Class<?>[] types = rule.getParameterTypes();
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < names.length; j++) {
+            if (j > 0) {
+                sb.append(", ");
+            }
+            sb.append(conversion(types[j], "w.fact(" + literal(names[j]) + ")"));
+        }
+        return sb.toString();
+    }
+
+    static String conversion(Class<?> type, String value) {
+        if (type.isPrimitive() || type == String.class) {
+            String name = type.getSimpleName();
+            return CONVERTERS + ".to" + Character.toUpperCase(name.charAt(0)) + name.substring(1) + "(" + value + ")";
+        }
+        String canonical = type.getCanonicalName();
+        return "((" + canonical + ") " + CONVERTERS + ".toObject(" + canonical + ".class, " + value + "))";
+    }
+
+    static String literal(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,260 @@
+package com.maxdemarzi.decisions;
+
+import com.maxdemarzi.Magic;
+import com.maxdemarzi.extension.TreeVersion;
+import com.maxdemarzi.metrics.CacheMetrics;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.model.TreeModel;
+import com.maxdemarzi.results.DecisionResult;
+import org.neo4j.graphdb.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared, bounded cache of the results of evaluating a Tree, so repeated facts skip the traversal entirely.
+ *
+ * A Tree only ever reads the facts named in the <var>parameter_names</var> of its Rules, so results are keyed by
+ * the Tree, its {@link TreeVersion} and the values of just those facts: requests that only differ in facts the
+ * Tree never reads share an entry. Entries expire after a time to live, and when the cache grows past its maximum
+ * size the least recently used tenth of the entries is evicted. A change to a Tree moves its version on, which makes
+ * the entries of its old version unreachable; the {@link com.maxdemarzi.extension.TreeChangeListener} then evicts
+ * them, leaving the entries of every other Tree alone. Transactions with changes to the Tree they have not committed
+ * yet neither read nor add entries.
+ *
+ * Set the system property <code>com.maxdemarzi.decisions.cache.size</code> to 0 to turn the cache off.
+ */
+public class DecisionCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 100_000;
+    public static final long DEFAULT_TIME_TO_LIVE_SECONDS = 300;
+
+    private static final DecisionCache INSTANCE = new DecisionCache(
+        Integer.getInteger("com.maxdemarzi.decisions.cache.size", DEFAULT_MAXIMUM_SIZE),
+        TimeUnit.SECONDS.toNanos(Long.getLong("com.maxdemarzi.decisions.cache.ttl", DEFAULT_TIME_TO_LIVE_SECONDS)));
+
+    /**
+     * Evaluates a Tree when its results are not cached.
+     */
+    public interface Evaluation<E extends Exception> {
+        List<DecisionResult> evaluate() throws E;
+    }
+
+    /**
+     * The facts a version of a Tree reads, in the order their values make up a key.
+     */
+    public static class TreeFacts {
+        private final String treeId;
+        private final long version;
+        private final String[] names;
+        // False when read by a transaction with changes it has not committed yet
+        private final boolean shared;
+
+        TreeFacts(String treeId, long version, String[] names, boolean shared) {
+            this.treeId = treeId;
+            this.version = version;
+            this.names = names;
+            this.shared = shared;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String[] getNames() {
+            return names;
+        }
+    }
+
+    private final int maximumSize;
+    private final long timeToLive;
+    private final Map<String, TreeFacts> trees = new ConcurrentHashMap<>();
+    private final Map<Key, Entry> decisions = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public DecisionCache(int maximumSize, long timeToLive) {
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive;
+    }
+
+    public static DecisionCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return maximumSize > 0;
+    }
+
+    /**
+     * @return the facts the current version of the given Tree node reads, read from the graph once per version
+     */
+    public TreeFacts facts(Node tree) {
+        // The tree may have changed in this transaction, and the changes may never be committed
+        boolean pending = TreeVersion.hasPendingChanges(tree);
+        TreeFacts facts = pending ? null : trees.get(tree.getElementId());
+        if (facts == null || facts.version != TreeVersion.current(tree.getElementId())) {
+            TreeModel model = TreeModel.load(tree);
+            Set<String> names = new LinkedHashSet<>();
+            for (TreeModel.Element element : model.getElements()) {
+                if (element.isRule() && element.parameterNames != null) {
+                    Collections.addAll(names, Magic.explode(element.parameterNames));
+                }
+            }
+            facts = new TreeFacts(tree.getElementId(), model.getVersion(), names.toArray(new String[0]), !pending);
+            if (!pending) {
+                trees.put(tree.getElementId(), facts);
+            }
+        }
+        return facts;
+    }
+
+    /**
+     * @param evaluator which way the Tree is evaluated, results of one evaluator are never handed to another
+     * @return the cached results of the Tree for these facts, or the results of the evaluation, cached for next time
+     */
+    public <E extends Exception> List<DecisionResult> get(TreeFacts tree, String evaluator, Map<String, ?> facts,
+                                                          boolean firstMatch, Evaluation<E> evaluation) throws E {
+        if (!isEnabled() || !tree.shared) {
+            return evaluation.evaluate();
+        }
+        Object[] values = new Object[tree.names.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = facts.get(tree.names[i]);
+        }
+        Key key = new Key(evaluator, tree.treeId, tree.version, firstMatch, values);
+
+        CacheMetrics metrics = MetricsRegistry.getInstance().cache(MetricsRegistry.DECISIONS);
+        long now = System.nanoTime();
+        Entry entry = decisions.get(key);
+        if (entry != null && now - entry.created < timeToLive) {
+            metrics.hit();
+            entry.lastUsed = clock.incrementAndGet();
+            return entry.results;
+        }
+
+        List<DecisionResult> results = evaluation.evaluate();
+        metrics.evaluated(System.nanoTime() - now);
+        // Nothing changed while we evaluated, otherwise the results may belong to neither version.
+        if (tree.version == TreeVersion.current(tree.treeId)) {
+            entry = new Entry(Collections.unmodifiableList(new ArrayList<>(results)), now);
+            entry.lastUsed = clock.incrementAndGet();
+            decisions.put(key, entry);
+            evictIfNeeded();
+        }
+        return results;
+    }
+
+    /**
+     * Drops the facts and the results of every version of the given Tree.
+     */
+    public void evict(String treeId) {
+        trees.remove(treeId);
+        decisions.keySet().removeIf(key -> key.treeId.equals(treeId));
+    }
+
+    public void clear() {
+        trees.clear();
+        decisions.clear();
+    }
+
+    public int size() {
+        return decisions.size();
+    }
+
+    private void evictIfNeeded() {
+        if (size() <= maximumSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            decisions.values().removeIf(entry -> now - entry.created >= timeToLive);
+            int excess = size() - maximumSize;
+            if (excess <= 0) {
+                return;
+            }
+            // Evict a batch at once so we don't sort on every insert once we are full.
+            int toEvict = Math.max(excess, maximumSize / 10);
+            // Snapshot the access times, they keep moving while other threads use the cache.
+            List<Candidate> candidates = new ArrayList<>(size());
+            decisions.forEach((key, entry) -> candidates.add(new Candidate(key, entry)));
+            candidates.sort(Comparator.comparingLong(c -> c.lastUsed));
+            for (int i = 0; i < toEvict && i < candidates.size(); i++) {
+                Candidate candidate = candidates.get(i);
+                decisions.remove(candidate.key, candidate.entry);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Key {
+        private final String evaluator;
+        private final String treeId;
+        private final long version;
+        private final boolean firstMatch;
+        private final Object[] values;
+        private final int hash;
+
+        Key(String evaluator, String treeId, long version, boolean firstMatch, Object[] values) {
+            this.evaluator = evaluator;
+            this.treeId = treeId;
+            this.version = version;
+            this.firstMatch = firstMatch;
+            this.values = values;
+            this.hash = Objects.hash(evaluator, treeId, version, firstMatch, Arrays.deepHashCode(values));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return version == other.version && firstMatch == other.firstMatch && evaluator.equals(other.evaluator)
+                && treeId.equals(other.treeId) && Arrays.deepEquals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        private final List<DecisionResult> results;
+        private final long created;
+        private volatile long lastUsed;
+
+        Entry(List<DecisionResult> results, long created) {
+            this.results = results;
+            this.created = created;
+        }
+    }
+
+    private static class Candidate {
+        private final Key key;
+        private final Entry entry;
+        private final long lastUsed;
+
+        Candidate(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastUsed = entry.lastUsed;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.schema.Labels;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tells the nodes of the decision tree model (Trees, Rules and Answers) apart from the rest of the graph, and finds
+ * the Trees a node is part of.
+ */
+public final class DecisionNodes {
+
+    private DecisionNodes() {}
+
+    public static boolean isDecisionNode(Node node) {
+        return node.hasLabel(Labels.Tree) || node.hasLabel(Labels.Rule) || node.hasLabel(Labels.Answer);
+    }
+
+    public static boolean isDecisionLabel(Label label) {
+        return Labels.Tree.name().equals(label.name())
+            || Labels.Rule.name().equals(label.name())
+            || Labels.Answer.name().equals(label.name());
+    }
+
+    /**
+     * Walks up the relationships from Trees and Rules leading to the given decision nodes, adding the element ids of
+     * the Trees they can be reached from, themselves included if they are Trees. Each node is only walked once.
+     */
+    public static void trees(Collection<Node> nodes, Set<String> trees) {
+        Set<String> visited = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        for (Node node : nodes) {
+            if (visited.add(node.getElementId())) {
+                queue.add(node);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Node current = queue.poll();
+            if (current.hasLabel(Labels.Tree)) {
+                trees.add(current.getElementId());
+            }
+            for (Relationship relationship : current.getRelationships(Direction.INCOMING)) {
+                Node parent = relationship.getStartNode();
+                if (visited.add(parent.getElementId()) && isDecisionNode(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+    }
+}
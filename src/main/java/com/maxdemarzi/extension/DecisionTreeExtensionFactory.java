@@ -0,0 +1,30 @@
+package com.maxdemarzi.extension;
+
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.kernel.extension.ExtensionFactory;
+import org.neo4j.kernel.extension.ExtensionType;
+import org.neo4j.kernel.extension.context.ExtensionContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.Lifecycle;
+
+/**
+ * Hooks the decision tree plugin into the lifecycle of every database, picked up by Neo4j through
+ * META-INF/services/org.neo4j.kernel.extension.ExtensionFactory.
+ */
+public class DecisionTreeExtensionFactory extends ExtensionFactory<DecisionTreeExtensionFactory.Dependencies> {
+
+    public interface Dependencies {
+        GraphDatabaseAPI graphdatabaseAPI();
+
+        DatabaseManagementService databaseManagementService();
+    }
+
+    public DecisionTreeExtensionFactory() {
+        super(ExtensionType.DATABASE, "decisionTrees");
+    }
+
+    @Override
+    public Lifecycle newInstance(ExtensionContext context, Dependencies dependencies) {
+        return new DecisionTreeLifecycle(dependencies.graphdatabaseAPI(), dependencies.databaseManagementService());
+    }
+}
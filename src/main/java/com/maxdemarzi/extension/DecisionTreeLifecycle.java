@@ -0,0 +1,49 @@
+package com.maxdemarzi.extension;
+
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.event.TransactionEventListener;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.LifecycleAdapter;
+
+import static org.neo4j.configuration.GraphDatabaseSettings.SYSTEM_DATABASE_NAME;
+
+/**
+ * Registers our transaction event listeners when a user database starts and removes them when it stops.
+ * Also warms up the trees of the database in the background, see {@link WarmUp}.
+ */
+public class DecisionTreeLifecycle extends LifecycleAdapter {
+
+    private final GraphDatabaseAPI db;
+    private final DatabaseManagementService managementService;
+    private final TransactionEventListener<?> ruleChangeListener = new RuleChangeListener();
+    private final TransactionEventListener<?> treeChangeListener = new TreeChangeListener();
+    private WarmUp warmUp;
+
+    public DecisionTreeLifecycle(GraphDatabaseAPI db, DatabaseManagementService managementService) {
+        this.db = db;
+        this.managementService = managementService;
+    }
+
+    @Override
+    public void start() {
+        if (SYSTEM_DATABASE_NAME.equals(db.databaseName())) {
+            return;
+        }
+        managementService.registerTransactionEventListener(db.databaseName(), ruleChangeListener);
+        managementService.registerTransactionEventListener(db.databaseName(), treeChangeListener);
+        warmUp = new WarmUp(db);
+        warmUp.start();
+    }
+
+    @Override
+    public void stop() {
+        if (SYSTEM_DATABASE_NAME.equals(db.databaseName())) {
+            return;
+        }
+        if (warmUp != null) {
+            warmUp.stop();
+        }
+        managementService.unregisterTransactionEventListener(db.databaseName(), ruleChangeListener);
+        managementService.unregisterTransactionEventListener(db.databaseName(), treeChangeListener);
+    }
+}
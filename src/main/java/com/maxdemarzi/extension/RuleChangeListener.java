@@ -0,0 +1,59 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.rules.RuleBytecode;
+import com.maxdemarzi.rules.RuleCache;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops compiled rules from the {@link RuleCache} once a transaction that changed or deleted their node commits, and
+ * the metrics of deleted rules from the {@link MetricsRegistry}.
+ */
+public class RuleChangeListener extends TransactionEventListenerAdapter<RuleChangeListener.Changes> {
+
+    /**
+     * The element ids of the nodes a transaction changed, and of those it deleted.
+     */
+    public static class Changes {
+        final Set<String> changed = new HashSet<>();
+        final Set<String> deleted = new HashSet<>();
+    }
+
+    @Override
+    public Changes beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+        // Collect the ids while the transaction is still open, we can't look at the nodes after the commit.
+        // Storing the bytecode of a rule leaves the rule as it was, along with what was compiled from it.
+        Changes changes = new Changes();
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (!RuleBytecode.isBytecodeProperty(entry.key())) {
+                changes.changed.add(entry.entity().getElementId());
+            }
+        }
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (!RuleBytecode.isBytecodeProperty(entry.key())) {
+                changes.changed.add(entry.entity().getElementId());
+            }
+        }
+        for (Node node : data.deletedNodes()) {
+            changes.deleted.add(node.getElementId());
+        }
+        return changes;
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Changes changes, GraphDatabaseService databaseService) {
+        if (changes != null) {
+            changes.changed.forEach(RuleCache.getInstance()::invalidate);
+            changes.deleted.forEach(RuleCache.getInstance()::invalidate);
+            changes.deleted.forEach(MetricsRegistry.getInstance()::removeRule);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.compiled.CompiledTreeCache;
+import com.maxdemarzi.decisions.DecisionCache;
+import com.maxdemarzi.rules.RuleBytecode;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.snapshot.SnapshotCache;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bumps the {@link TreeVersion} of every Tree a committed transaction changed, and evicts whatever was built from
+ * Trees that were deleted or are no longer Trees. Changes to the rest of the graph leave every Tree alone.
+ */
+public class TreeChangeListener extends TransactionEventListenerAdapter<TreeChangeListener.Changes> {
+
+    /**
+     * The element ids of the Trees a transaction changed, and of those it deleted or took the Tree label from.
+     */
+    public static class Changes {
+        final Set<String> changed = new HashSet<>();
+        final Set<String> removed = new HashSet<>();
+    }
+
+    /**
+     * @return null if no decision tree was touched, otherwise the Trees that were
+     */
+    @Override
+    public Changes beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+        Set<String> deleted = new HashSet<>();
+        for (Node node : data.deletedNodes()) {
+            deleted.add(node.getElementId());
+        }
+        Changes changes = new Changes();
+        // Deleted nodes no longer have labels, the labels they lost are the only way to tell a Tree was deleted
+        for (LabelEntry entry : data.removedLabels()) {
+            if (Labels.Tree.name().equals(entry.label().name())) {
+                changes.removed.add(entry.node().getElementId());
+            }
+        }
+
+        // The nodes still there that changed, we walk up from them to the Trees they are part of. Deleted nodes
+        // can only have been part of a Tree through relationships that were deleted along with them, whose start
+        // nodes are found here in turn.
+        List<Node> changed = new ArrayList<>();
+        for (Relationship relationship : data.createdRelationships()) {
+            addIfDecisionNode(relationship.getStartNode(), deleted, changed);
+        }
+        for (Relationship relationship : data.deletedRelationships()) {
+            addIfDecisionNode(relationship.getStartNode(), deleted, changed);
+        }
+        for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+            addIfDecisionNode(entry.entity().getStartNode(), deleted, changed);
+        }
+        for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) {
+            if (!data.isDeleted(entry.entity())) {
+                addIfDecisionNode(entry.entity().getStartNode(), deleted, changed);
+            }
+        }
+        // Storing the bytecode of a Rule doesn't change what it decides
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (!RuleBytecode.isBytecodeProperty(entry.key())) {
+                addIfDecisionNode(entry.entity(), deleted, changed);
+            }
+        }
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (!RuleBytecode.isBytecodeProperty(entry.key())) {
+                addIfDecisionNode(entry.entity(), deleted, changed);
+            }
+        }
+        // A node that lost its decision label is no longer a decision node, but the Trees it was part of changed
+        for (LabelEntry entry : data.assignedLabels()) {
+            if (DecisionNodes.isDecisionLabel(entry.label())) {
+                changed.add(entry.node());
+            }
+        }
+        for (LabelEntry entry : data.removedLabels()) {
+            if (DecisionNodes.isDecisionLabel(entry.label()) && !deleted.contains(entry.node().getElementId())) {
+                changed.add(entry.node());
+            }
+        }
+
+        DecisionNodes.trees(changed, changes.changed);
+        changes.changed.removeAll(changes.removed);
+        return changes.changed.isEmpty() && changes.removed.isEmpty() ? null : changes;
+    }
+
+    private static void addIfDecisionNode(Node node, Set<String> deleted, List<Node> changed) {
+        if (!deleted.contains(node.getElementId()) && DecisionNodes.isDecisionNode(node)) {
+            changed.add(node);
+        }
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Changes changes, GraphDatabaseService databaseService) {
+        if (changes == null) {
+            return;
+        }
+        // Whatever was built from a changed Tree is rebuilt the next time it is asked for. Results of the old
+        // version can no longer be found, don't keep them around until they expire.
+        for (String treeId : changes.changed) {
+            TreeVersion.increment(treeId);
+            DecisionCache.getInstance().evict(treeId);
+        }
+        for (String treeId : changes.removed) {
+            TreeVersion.remove(treeId);
+            CompiledTreeCache.getInstance().evict(treeId);
+            SnapshotCache.getInstance().evict(treeId);
+            DecisionCache.getInstance().evict(treeId);
+        }
+    }
+}
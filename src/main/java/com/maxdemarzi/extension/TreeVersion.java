@@ -0,0 +1,95 @@
+package com.maxdemarzi.extension;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.NodeEntity;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.storageengine.api.txstate.NodeState;
+import org.neo4j.storageengine.api.txstate.ReadableTransactionState;
+import org.neo4j.storageengine.api.txstate.RelationshipState;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of each decision tree (the Tree, the Rules and Answers reachable from it and the relationships between
+ * them), keyed by the element id of the Tree node. Anything built from a tree remembers the version it was built at
+ * and is rebuilt once it no longer matches, so a change to one tree leaves what was built from the others alone.
+ *
+ * Trees that never changed since the database started are at version 0. A changed tree is given the next number of
+ * a sequence shared by all trees, so a Tree created with the element id of a deleted one never ends up at a version
+ * something of the deleted one was built at.
+ *
+ * The version only moves once a change is committed, so it says nothing about what the transaction reading a tree
+ * has changed but not committed yet: such a transaction must neither be handed nor leave behind anything shared,
+ * see {@link #hasPendingChanges}.
+ */
+public final class TreeVersion {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final Map<String, Long> VERSIONS = new ConcurrentHashMap<>();
+
+    private TreeVersion() {}
+
+    public static long current(String treeId) {
+        return VERSIONS.getOrDefault(treeId, 0L);
+    }
+
+    public static void increment(String treeId) {
+        VERSIONS.put(treeId, SEQUENCE.incrementAndGet());
+    }
+
+    /**
+     * Forgets a Tree that was deleted or is no longer a Tree.
+     */
+    public static void remove(String treeId) {
+        VERSIONS.remove(treeId);
+    }
+
+    /**
+     * @return true if the transaction the Tree node was read in changed the tree but has not committed yet. Changes
+     * to the rest of the graph don't count.
+     */
+    public static boolean hasPendingChanges(Node tree) {
+        if (!(tree instanceof NodeEntity)) {
+            return false;
+        }
+        InternalTransaction transaction = ((NodeEntity) tree).getTransaction();
+        KernelTransaction kernel = transaction.kernelTransaction();
+        if (!kernel.dataRead().transactionStateHasChanges()) {
+            return false;
+        }
+        if (!(kernel instanceof TxStateHolder)) {
+            return true;
+        }
+        // Creating or deleting a relationship changes the state of the node it starts at, so the nodes cover them
+        ReadableTransactionState state = ((TxStateHolder) kernel).txState();
+        List<Node> changed = new ArrayList<>();
+        for (NodeState node : state.modifiedNodes()) {
+            if (!state.nodeIsDeletedInThisBatch(node.getId())) {
+                Node entity = transaction.newNodeEntity(node.getId());
+                // A node that lost its decision label is no longer a decision node, but it was part of the tree
+                if (!node.labelDiffSets().isEmpty() || DecisionNodes.isDecisionNode(entity)) {
+                    changed.add(entity);
+                }
+            }
+        }
+        for (RelationshipState relationship : state.modifiedRelationships()) {
+            if (!state.relationshipIsDeletedInThisBatch(relationship.getId())) {
+                Node start = transaction.newRelationshipEntity(relationship.getId()).getStartNode();
+                if (DecisionNodes.isDecisionNode(start)) {
+                    changed.add(start);
+                }
+            }
+        }
+        Set<String> trees = new HashSet<>();
+        DecisionNodes.trees(changed, trees);
+        return trees.contains(tree.getElementId());
+    }
+}
@@ -0,0 +1,125 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.metrics.CacheMetrics;
+import org.neo4j.graphdb.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps what was built from each Tree, keyed by the element id of the Tree node, at the {@link TreeVersion} it was
+ * built at. Each version of a Tree is built at most once: the first caller builds it and callers asking for it in
+ * the meantime wait for that build instead of starting their own. A build that fails is not kept, so the next caller
+ * tries again.
+ *
+ * Transactions that changed the Tree but have not committed yet get a build of their own, which is not kept.
+ */
+public class VersionedCache<T, E extends Exception> {
+
+    /**
+     * Builds what is kept for a Tree.
+     */
+    public interface Builder<T, E extends Exception> {
+        T build(Node tree) throws E;
+    }
+
+    private final Class<E> failure;
+    private final Map<String, Build<T>> builds = new ConcurrentHashMap<>();
+
+    /**
+     * @param failure the checked exception a build may fail with, handed to the callers waiting for it as it is
+     */
+    public VersionedCache(Class<E> failure) {
+        this.failure = failure;
+    }
+
+    public T get(Node tree, CacheMetrics metrics, Builder<T, E> builder) throws E {
+        // The tree may have changed in this transaction, and the changes may never be committed
+        if (TreeVersion.hasPendingChanges(tree)) {
+            return build(tree, metrics, builder);
+        }
+        String treeId = tree.getElementId();
+        long version = TreeVersion.current(treeId);
+        Build<T> existing = builds.get(treeId);
+        if (existing == null || existing.version != version) {
+            Build<T> started = new Build<>(version);
+            existing = builds.compute(treeId,
+                (id, current) -> current != null && current.version == version ? current : started);
+            if (existing == started) {
+                try {
+                    started.result.complete(build(tree, metrics, builder));
+                } catch (Throwable e) {
+                    // Errors too, or the callers waiting for it would wait forever
+                    builds.remove(treeId, started);
+                    started.result.completeExceptionally(e);
+                    throw e;
+                }
+                return started.result.join();
+            }
+        }
+        metrics.hit();
+        try {
+            return existing.result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (failure.isInstance(cause)) {
+                throw failure.cast(cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private T build(Node tree, CacheMetrics metrics, Builder<T, E> builder) throws E {
+        long started = System.nanoTime();
+        T built;
+        try {
+            built = builder.build(tree);
+        } catch (Exception e) {
+            metrics.error(System.nanoTime() - started);
+            throw e;
+        }
+        metrics.miss(System.nanoTime() - started);
+        return built;
+    }
+
+    /**
+     * @return what was built from each Tree, leaving out builds still running or failed
+     */
+    public List<T> values() {
+        List<T> values = new ArrayList<>(builds.size());
+        for (Build<T> build : builds.values()) {
+            if (build.result.isDone() && !build.result.isCompletedExceptionally()) {
+                values.add(build.result.join());
+            }
+        }
+        return values;
+    }
+
+    public void evict(String treeId) {
+        builds.remove(treeId);
+    }
+
+    public void clear() {
+        builds.clear();
+    }
+
+    public int size() {
+        return builds.size();
+    }
+
+    private static class Build<T> {
+        private final long version;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Build(long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.compiled.CompiledTreeCache;
+import com.maxdemarzi.decisions.DecisionCache;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.snapshot.SnapshotCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads every Tree of a database once it becomes available, so the first requests after a restart don't pay for
+ * reading the trees and compiling their Rules. Each Tree gets its snapshot and compiled class built, which puts all
+ * of its Rules in the {@link com.maxdemarzi.rules.RuleCache}, in a read transaction of its own.
+ *
+ * At most <code>com.maxdemarzi.warmup.parallelism</code> trees are warmed at once, half the processors by default.
+ * Set the system property <code>com.maxdemarzi.warmup.enabled</code> to false to skip it.
+ */
+public class WarmUp {
+
+    private static final Logger log = LogManager.getLogger(WarmUp.class);
+
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    public enum State {
+        // Waiting for the database to become available
+        WAITING,
+        RUNNING,
+        DONE,
+        // Stopped with the database before it was done
+        STOPPED,
+        DISABLED,
+    }
+
+    private static final Map<String, WarmUp> DATABASES = new ConcurrentHashMap<>();
+
+    private final GraphDatabaseService db;
+    private final int parallelism;
+    private final boolean enabled;
+
+    private volatile State state = State.WAITING;
+    private final AtomicLong trees = new AtomicLong();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rules = new AtomicLong();
+    private volatile long started;
+    private volatile long finished;
+
+    private Thread thread;
+    private ExecutorService executor;
+
+    public WarmUp(GraphDatabaseService db) {
+        this(db, Integer.getInteger("com.maxdemarzi.warmup.parallelism", DEFAULT_PARALLELISM),
+            Boolean.parseBoolean(System.getProperty("com.maxdemarzi.warmup.enabled", "true")));
+    }
+
+    public WarmUp(GraphDatabaseService db, int parallelism, boolean enabled) {
+        this.db = db;
+        this.parallelism = Math.max(1, parallelism);
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the warm-up of the given database, or null if it has not started
+     */
+    public static WarmUp get(String database) {
+        return DATABASES.get(database);
+    }
+
+    synchronized void start() {
+        DATABASES.put(db.databaseName(), this);
+        if (!enabled) {
+            state = State.DISABLED;
+            return;
+        }
+        executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread worker = new Thread(runnable, "decision-tree-warm-up-" + db.databaseName());
+            worker.setDaemon(true);
+            return worker;
+        });
+        thread = new Thread(this::run, "decision-tree-warm-up-" + db.databaseName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        DATABASES.remove(db.databaseName(), this);
+        if (thread != null) {
+            thread.interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    private void run() {
+        try {
+            // The database starts after its extensions do.
+            while (!db.isAvailable(1_000)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            started = System.nanoTime();
+            state = State.RUNNING;
+
+            List<String> treeIds = new ArrayList<>();
+            try (Transaction tx = db.beginTx(); ResourceIterator<Node> found = tx.findNodes(Labels.Tree)) {
+                found.forEachRemaining(tree -> treeIds.add(tree.getElementId()));
+            }
+            trees.set(treeIds.size());
+
+            List<Future<?>> futures = new ArrayList<>(treeIds.size());
+            for (String treeId : treeIds) {
+                futures.add(executor.submit(() -> warm(treeId)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            finished = System.nanoTime();
+            state = State.DONE;
+            log.info("warmed {} of {} trees with {} rules in {} ms", warmed.get(), trees.get(), rules.get(),
+                (finished - started) / 1_000_000);
+        } catch (InterruptedException e) {
+            state = State.STOPPED;
+        } catch (ExecutionException | RuntimeException e) {
+            // Already shutting down, or a database that went away.
+            log.warn("warm-up of {} stopped: {}", db.databaseName(), e.getMessage());
+            state = State.STOPPED;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void warm(String treeId) {
+        try (Transaction tx = db.beginTx()) {
+            Node tree = tx.getNodeByElementId(treeId);
+            rules.addAndGet(SnapshotCache.getInstance().get(tree).getRules());
+            CompiledTreeCache.getInstance().get(tree);
+            DecisionCache.getInstance().facts(tree);
+            warmed.incrementAndGet();
+        } catch (Exception e) {
+            log.warn("could not warm up tree {}: {}", treeId, e.getMessage());
+            errors.incrementAndGet();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getTrees() {
+        return trees.get();
+    }
+
+    public long getWarmed() {
+        return warmed.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getRules() {
+        return rules.get();
+    }
+
+    /**
+     * @return how long the warm-up has been running, or took when it is done
+     */
+    public long getMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        return ((state == State.DONE ? finished : System.nanoTime()) - started) / 1_000_000;
+    }
+}
@@ -0,0 +1,28 @@
+package com.maxdemarzi.extension;
+
+import com.maxdemarzi.results.WarmUpResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Procedure;
+
+import java.util.stream.Stream;
+
+public class WarmUps {
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Procedure(name = "com.maxdemarzi.warmup.status", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.warmup.status() - progress of loading and compiling the trees at startup, " +
+            "ready once the state is DONE")
+    public Stream<WarmUpResult> status() {
+        WarmUp warmUp = WarmUp.get(db.databaseName());
+        if (warmUp == null) {
+            return Stream.of(new WarmUpResult(db.databaseName(), WarmUp.State.WAITING.name(), 0, 0, 0, 0, 0));
+        }
+        return Stream.of(new WarmUpResult(db.databaseName(), warmUp.getState().name(), warmUp.getTrees(),
+            warmUp.getWarmed(), warmUp.getErrors(), warmUp.getRules(), warmUp.getMillis()));
+    }
+}
@@ -0,0 +1,50 @@
+package com.maxdemarzi.generate;
+
+import com.maxdemarzi.results.GenerateResult;
+import com.maxdemarzi.schema.Labels;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.stream.Stream;
+
+public class Generate {
+
+    // This field declares that we need a GraphDatabaseService
+    // as context when any procedure in this class is invoked
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction txn;
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.generate.tree", mode = Mode.WRITE)
+    @Description("CALL com.maxdemarzi.generate.tree(id, depth, fanout, ruleMix, seed, terms, batchSize) - generate a tree for scale testing")
+    public Stream<GenerateResult> tree(@Name("id") String id,
+                                       @Name("depth") long depth,
+                                       @Name("fanout") long fanout,
+                                       @Name(value = "ruleMix", defaultValue = "0.5") double ruleMix,
+                                       @Name(value = "seed", defaultValue = "0") long seed,
+                                       @Name(value = "terms", defaultValue = "2") long terms,
+                                       @Name(value = "batchSize", defaultValue = "10000") long batchSize) {
+        if (txn.findNode(Labels.Tree, "id", id) != null) {
+            throw new IllegalArgumentException("Tree " + id + " already exists");
+        }
+        // Written in transactions of its own, so large trees don't have to fit in a single one
+        TreeGenerator generator = new TreeGenerator((int) depth, (int) fanout, ruleMix, (int) terms, seed);
+        GenerateResult result = generator.generate(db, id, (int) Math.max(1, batchSize));
+        log.info("generated tree:{} rules:{} relationships:{} in {} transactions",
+            id, result.rules, result.relationships, result.transactions);
+        return Stream.of(result);
+    }
+}
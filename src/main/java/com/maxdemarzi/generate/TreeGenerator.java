@@ -0,0 +1,163 @@
+package com.maxdemarzi.generate;
+
+import com.maxdemarzi.results.GenerateResult;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates a Tree of the given shape to find out how the traversals behave on trees bigger than the examples.
+ *
+ * Every Rule reads <var>terms</var> of the integer facts <code>fact_0</code> to <code>fact_n</code>. A share of
+ * <var>ruleMix</var> of the rules are scripts that add their facts up and pick one of <var>fanout</var> OPTION_
+ * relationships, the others are expressions comparing each fact against a threshold with IS_TRUE and IS_FALSE
+ * relationships. Rules at the given depth lead to a shared pool of Answers, so each evaluation reaches exactly one.
+ *
+ * The tree is written in transactions of about <var>batchSize</var> nodes and relationships each. Everything is
+ * drawn from a single Random in a fixed order, so the same seed always creates the same tree.
+ */
+public class TreeGenerator {
+
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private final int depth;
+    private final int fanout;
+    private final double ruleMix;
+    private final int terms;
+    private final Random random;
+    private final List<String> factNames = new ArrayList<>();
+
+    public TreeGenerator(int depth, int fanout, double ruleMix, int terms, long seed) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1 but was " + depth);
+        }
+        if (fanout < 2) {
+            throw new IllegalArgumentException("fanout must be at least 2 but was " + fanout);
+        }
+        if (ruleMix < 0 || ruleMix > 1) {
+            throw new IllegalArgumentException("ruleMix must be between 0 and 1 but was " + ruleMix);
+        }
+        if (terms < 1) {
+            throw new IllegalArgumentException("terms must be at least 1 but was " + terms);
+        }
+        this.depth = depth;
+        this.fanout = fanout;
+        this.ruleMix = ruleMix;
+        this.terms = terms;
+        this.random = new Random(seed);
+        for (int f = 0; f < Math.max(terms, 8); f++) {
+            factNames.add("fact_" + f);
+        }
+    }
+
+    public GenerateResult generate(GraphDatabaseService db, String id, int batchSize) {
+        long rules = 0;
+        long relationships = 0;
+        long transactions = 1;
+        long operations = 0;
+        List<String> answers = new ArrayList<>();
+
+        Transaction tx = db.beginTx();
+        try {
+            Node tree = tx.createNode(Labels.Tree);
+            tree.setProperty("id", id);
+            for (int a = 0; a < fanout; a++) {
+                Node answer = tx.createNode(Labels.Answer);
+                answer.setProperty("id", "answer_" + a);
+                answers.add(answer.getElementId());
+            }
+            Node root = rule(tx);
+            tree.createRelationshipTo(root, RelationshipTypes.HAS);
+            rules++;
+            relationships++;
+
+            // Breadth first, only the element ids of the previous level are kept between transactions.
+            List<String> level = List.of(root.getElementId());
+            for (int d = 1; d <= depth; d++) {
+                List<String> next = new ArrayList<>();
+                for (String parentId : level) {
+                    if (operations >= batchSize) {
+                        tx.commit();
+                        tx.close();
+                        tx = db.beginTx();
+                        transactions++;
+                        operations = 0;
+                    }
+                    Node parent = tx.getNodeByElementId(parentId);
+                    for (RelationshipType outcome : outcomes(parent)) {
+                        Node target;
+                        if (d == depth) {
+                            target = tx.getNodeByElementId(answers.get(random.nextInt(answers.size())));
+                        } else {
+                            target = rule(tx);
+                            next.add(target.getElementId());
+                            rules++;
+                            operations++;
+                        }
+                        parent.createRelationshipTo(target, outcome);
+                        relationships++;
+                        operations++;
+                    }
+                }
+                level = next;
+            }
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+        return new GenerateResult(id, rules, answers.size(), relationships, transactions, factNames);
+    }
+
+    public List<String> getFactNames() {
+        return factNames;
+    }
+
+    private List<RelationshipType> outcomes(Node rule) {
+        if (!rule.hasProperty("script")) {
+            return List.of(RelationshipTypes.IS_TRUE, RelationshipTypes.IS_FALSE);
+        }
+        List<RelationshipType> outcomes = new ArrayList<>();
+        for (int o = 0; o < fanout; o++) {
+            outcomes.add(RelationshipType.withName("OPTION_" + o));
+        }
+        return outcomes;
+    }
+
+    private Node rule(Transaction tx) {
+        boolean script = random.nextDouble() < ruleMix;
+        List<String> names = new ArrayList<>();
+        StringBuilder source = new StringBuilder(script ? "int sum = 0;" : "");
+        while (names.size() < terms) {
+            String name = factNames.get(random.nextInt(factNames.size()));
+            if (names.contains(name)) {
+                continue;
+            }
+            if (script) {
+                source.append(" sum += ").append(name).append(';');
+            } else {
+                if (!names.isEmpty()) {
+                    source.append(random.nextBoolean() ? " && " : " || ");
+                }
+                source.append(name).append(random.nextBoolean() ? " > " : " <= ").append(random.nextInt(100));
+            }
+            names.add(name);
+        }
+        if (script) {
+            source.append(" return \"OPTION_\" + Math.floorMod(sum, ").append(fanout).append(");");
+        }
+
+        Node rule = tx.createNode(Labels.Rule);
+        rule.setProperty("parameter_names", String.join(",", names));
+        rule.setProperty("parameter_types", String.join(",", Collections.nCopies(names.size(), "int")));
+        rule.setProperty(script ? "script" : "expression", source.toString());
+        return rule;
+    }
+}
@@ -0,0 +1,107 @@
+package com.maxdemarzi.imports;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.maxdemarzi.results.ImportResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Imports trees from a URL the server fetches, so it is off unless Neo4j is started with
+ * <code>-Dcom.maxdemarzi.import.enabled=true</code>:
+ * <ul>
+ *     <li><code>com.maxdemarzi.import.directory</code> the directory <var>file:</var> URLs are resolved against,
+ *     like those of <code>LOAD CSV</code>; they can't leave it, and without it <var>file:</var> URLs are refused</li>
+ *     <li><code>com.maxdemarzi.import.schemes</code> the URL schemes allowed, <var>file</var> by default,
+ *     <var>http</var> and <var>https</var> have to be allowed explicitly</li>
+ * </ul>
+ */
+public class Import {
+
+    private static final Set<String> SCHEMES = Set.of("file", "http", "https");
+
+    // This field declares that we need a GraphDatabaseService
+    // as context when any procedure in this class is invoked
+    @Context
+    public GraphDatabaseService db;
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.import.trees", mode = Mode.WRITE)
+    @Description("CALL com.maxdemarzi.import.trees(url, batchSize) - import trees, rules, answers and edges from a JSON document")
+    public Stream<ImportResult> trees(@Name("url") String url,
+                                      @Name(value = "batchSize", defaultValue = "10000") long batchSize) throws IOException {
+        long started = System.nanoTime();
+        if (!Boolean.getBoolean("com.maxdemarzi.import.enabled")) {
+            throw new IllegalStateException("Importing trees is disabled, start Neo4j with -Dcom.maxdemarzi.import.enabled=true");
+        }
+        // Written in transactions of its own, so large imports don't have to fit in a single one
+        try (InputStream in = new BufferedInputStream(open(url))) {
+            ImportResult result = new TreeImporter((int) batchSize).load(db, in);
+            log.info("imported trees:{} rules:{} answers:{} relationships:{} in {} transactions and {} ms",
+                result.trees, result.rules, result.answers, result.relationships, result.transactions,
+                (System.nanoTime() - started) / 1_000_000);
+            return Stream.of(result);
+        } catch (JsonProcessingException e) {
+            // Jackson quotes what it could not parse, which is none of the caller's business
+            throw new IllegalArgumentException("Could not parse " + url + " as JSON at line "
+                + e.getLocation().getLineNr() + ", column " + e.getLocation().getColumnNr());
+        }
+    }
+
+    private static InputStream open(String url) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid URL " + url);
+        }
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        Set<String> allowed = Arrays.stream(System.getProperty("com.maxdemarzi.import.schemes", "file").split(","))
+            .map(allow -> allow.trim().toLowerCase(Locale.ROOT))
+            .filter(SCHEMES::contains)
+            .collect(Collectors.toSet());
+        if (!allowed.contains(scheme)) {
+            throw new IllegalArgumentException("URL scheme " + scheme + " is not allowed, only " + allowed);
+        }
+        if (!scheme.equals("file")) {
+            return uri.toURL().openStream();
+        }
+
+        String directory = System.getProperty("com.maxdemarzi.import.directory");
+        if (directory == null) {
+            throw new IllegalStateException("Importing from files needs -Dcom.maxdemarzi.import.directory");
+        }
+        // Resolved against the import directory like LOAD CSV does, so file:///trees.json is <directory>/trees.json
+        String path = uri.getPath();
+        if (path == null || Arrays.asList(path.split("/")).contains("..")) {
+            throw new IllegalArgumentException("File " + url + " must be in the import directory");
+        }
+        Path root = Path.of(directory).toAbsolutePath().normalize();
+        Path file = root.resolve(path.replaceFirst("^/+", "")).normalize();
+        if (!file.startsWith(root)) {
+            throw new IllegalArgumentException("File " + url + " must be in the import directory");
+        }
+        return Files.newInputStream(file);
+    }
+}
@@ -0,0 +1,212 @@
+package com.maxdemarzi.imports;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maxdemarzi.Magic;
+import com.maxdemarzi.results.ImportResult;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads Trees, Rules, Answers and the edges between them from a JSON document and writes them to the graph:
+ *
+ * <pre>
+ * { "trees":   [ { "id": "bar entrance" } ],
+ *   "rules":   [ { "key": "over 21", "parameter_names": "age", "parameter_types": "int", "expression": "age &gt;= 21" } ],
+ *   "answers": [ { "key": "bar yes", "id": "yes" } ],
+ *   "edges":   [ { "from": "bar entrance", "to": "over 21", "type": "HAS", "priority": 1 },
+ *                { "from": "over 21", "to": "bar yes", "type": "IS_TRUE" } ] }
+ * </pre>
+ *
+ * Edges refer to the <var>key</var> of a node, which defaults to the id of Trees and Answers, so every node an edge
+ * refers to has to come before it in the document. Every other field of a node becomes a property of it. The
+ * document is parsed one entry at a time, only the keys and element ids of the nodes are kept in memory, and the
+ * graph is written in transactions of about <var>batchSize</var> nodes and relationships each. Rules are checked
+ * for either an expression or a script and a parameter type for each name as they are read. An invalid entry stops
+ * the import with an {@link IllegalArgumentException}, the transactions committed before it are kept.
+ */
+public class TreeImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> ENTRY = new TypeReference<>() {};
+
+    private final int batchSize;
+    private final Map<String, String> keys = new HashMap<>();
+    private final List<String> trees = new ArrayList<>();
+    private long rules;
+    private long answers;
+    private long relationships;
+    private long transactions;
+
+    private Transaction tx;
+    private long operations;
+
+    public TreeImporter(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public ImportResult load(GraphDatabaseService db, InputStream in) throws IOException {
+        tx = db.beginTx();
+        transactions = 1;
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object with trees, rules, answers and edges");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Map<String, Object> entry = MAPPER.readValue(parser, ENTRY);
+                    switch (section) {
+                        case "trees":
+                            tree(entry);
+                            break;
+                        case "rules":
+                            rule(entry);
+                            break;
+                        case "answers":
+                            answer(entry);
+                            break;
+                        case "edges":
+                            edge(entry);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown section " + section);
+                    }
+                    if (++operations >= batchSize) {
+                        tx.commit();
+                        tx.close();
+                        tx = db.beginTx();
+                        transactions++;
+                        operations = 0;
+                    }
+                }
+            }
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+        return new ImportResult(trees, rules, answers, relationships, transactions);
+    }
+
+    private void tree(Map<String, Object> entry) {
+        String id = required(entry, "id", "Tree");
+        if (tx.findNode(Labels.Tree, "id", id) != null) {
+            throw new IllegalArgumentException("Tree " + id + " already exists");
+        }
+        node(Labels.Tree, key(entry, id), entry);
+        trees.add(id);
+    }
+
+    private void rule(Map<String, Object> entry) {
+        String key = required(entry, "key", "Rule");
+        validate(key, entry);
+        node(Labels.Rule, key, entry);
+        rules++;
+    }
+
+    private void answer(Map<String, Object> entry) {
+        String id = required(entry, "id", "Answer");
+        node(Labels.Answer, key(entry, id), entry);
+        answers++;
+    }
+
+    private void edge(Map<String, Object> entry) {
+        Node from = tx.getNodeByElementId(known(required(entry, "from", "Edge")));
+        Node to = tx.getNodeByElementId(known(required(entry, "to", "Edge")));
+        Relationship relationship = from.createRelationshipTo(to, RelationshipType.withName(required(entry, "type", "Edge")));
+        Object priority = entry.get(Priorities.PRIORITY);
+        if (priority instanceof Number) {
+            relationship.setProperty(Priorities.PRIORITY, ((Number) priority).longValue());
+        }
+        relationships++;
+    }
+
+    /**
+     * Checks a Rule has either an expression or a script and a known parameter type for each of its names.
+     */
+    static void validate(String key, Map<String, Object> rule) {
+        if (rule.containsKey("expression") == rule.containsKey("script")) {
+            throw new IllegalArgumentException("Rule " + key + " needs either an expression or a script");
+        }
+        String names = required(rule, "parameter_names", "Rule " + key);
+        String types = required(rule, "parameter_types", "Rule " + key);
+        Class<?>[] parsed;
+        try {
+            parsed = Magic.stringToTypes(types);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Rule " + key + ": " + e.getMessage(), e);
+        }
+        if (Magic.explode(names).length != parsed.length) {
+            throw new IllegalArgumentException("Rule " + key + " has " + Magic.explode(names).length
+                + " parameter names but " + parsed.length + " parameter types");
+        }
+    }
+
+    private void node(Label label, String key, Map<String, Object> entry) {
+        if (keys.containsKey(key)) {
+            throw new IllegalArgumentException("Key " + key + " is used more than once");
+        }
+        Node node = tx.createNode(label);
+        entry.forEach((name, value) -> {
+            if (!name.equals("key")) {
+                node.setProperty(name, property(name, value));
+            }
+        });
+        keys.put(key, node.getElementId());
+    }
+
+    private String known(String key) {
+        String elementId = keys.get(key);
+        if (elementId == null) {
+            throw new IllegalArgumentException("Edge refers to " + key + " before it was imported");
+        }
+        return elementId;
+    }
+
+    private static Object property(String name, Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        throw new IllegalArgumentException("Property " + name + " must be a string, number or boolean");
+    }
+
+    private static String key(Map<String, Object> entry, String id) {
+        Object key = entry.get("key");
+        return key == null ? id : key.toString();
+    }
+
+    private static String required(Map<String, Object> entry, String name, String what) {
+        Object value = entry.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException(what + " is missing " + name);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.maxdemarzi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hits and misses of one of the caches, and the time spent compiling or loading on a miss. Caches of results rather
+ * than of compiled code record how long it took to evaluate what they missed instead, kept apart from compile time.
+ */
+public class CacheMetrics {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram compileTime = new LatencyHistogram();
+    private final LatencyHistogram evaluationTime = new LatencyHistogram();
+
+    public void hit() {
+        hits.increment();
+    }
+
+    public void miss(long nanos) {
+        misses.increment();
+        compileTime.record(nanos);
+    }
+
+    /**
+     * A miss that had nothing to compile or load.
+     */
+    public void miss() {
+        misses.increment();
+    }
+
+    /**
+     * A miss of a result that took <var>nanos</var> to evaluate.
+     */
+    public void evaluated(long nanos) {
+        misses.increment();
+        evaluationTime.record(nanos);
+    }
+
+    public void error(long nanos) {
+        misses.increment();
+        errors.increment();
+        compileTime.record(nanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public LatencyHistogram getCompileTime() {
+        return compileTime;
+    }
+
+    public LatencyHistogram getEvaluationTime() {
+        return evaluationTime;
+    }
+
+    void reset() {
+        hits.reset();
+        misses.reset();
+        errors.reset();
+        compileTime.reset();
+        evaluationTime.reset();
+    }
+}
@@ -0,0 +1,117 @@
+package com.maxdemarzi.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ *
+ * Every power of two is split into 8 buckets, so a percentile is never off by more than an eighth of its value.
+ * Recording is a bucket increment and a few adds, without allocating. Reading while other threads record gives
+ * a close but not necessarily consistent view, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(index(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Records <var>times</var> durations of <var>nanos</var> each, like the average of work done in bulk.
+     */
+    public void record(long nanos, long times) {
+        if (times <= 0) {
+            return;
+        }
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.addAndGet(index(nanos), times);
+        count.add(times);
+        total.add(nanos * times);
+        max.accumulate(nanos);
+    }
+
+    static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest duration that falls into the given bucket
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1L) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @return the duration below which the given fraction (0 to 1) of the recorded durations fall
+     */
+    public long percentile(double fraction) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = buckets.get(b);
+            n += counts[b];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(upperBound(b), max());
+            }
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
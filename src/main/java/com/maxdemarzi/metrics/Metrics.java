@@ -0,0 +1,60 @@
+package com.maxdemarzi.metrics;
+
+import com.maxdemarzi.audit.AuditLog;
+import com.maxdemarzi.results.MetricResult;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+public class Metrics {
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.metrics", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.metrics(reset) - call counts, outcomes and latencies per tree, rule and cache")
+    public Stream<MetricResult> metrics(@Name(value = "reset", defaultValue = "false") boolean reset) {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        List<MetricResult> results = new ArrayList<>();
+
+        new TreeMap<>(registry.getTrees()).forEach((id, tree) ->
+            results.add(new MetricResult("tree", id, tree.getCalls(), 0,
+                Map.of("answers", tree.getAnswers()), tree.getLatency())));
+
+        new TreeMap<>(registry.getRules()).forEach((id, rule) ->
+            results.add(new MetricResult("rule", id, rule.getLatency().count(), rule.getErrors(),
+                rule.getOutcomes(), rule.getLatency())));
+
+        // Caches of results have nothing to compile, their latencies are the time spent evaluating what they missed
+        new TreeMap<>(registry.getCaches()).forEach((name, cache) ->
+            results.add(new MetricResult("cache", name, cache.getHits() + cache.getMisses(), cache.getErrors(),
+                Map.of("hits", cache.getHits(), "misses", cache.getMisses(), "hit_ratio", cache.getHitRatio()),
+                cache.getEvaluationTime().count() > 0 ? cache.getEvaluationTime() : cache.getCompileTime())));
+
+        // How far the audit log is behind, its latencies are the time records wait to be written
+        AuditLog audit = AuditLog.getInstance();
+        if (audit.isEnabled()) {
+            results.add(new MetricResult("audit", audit.getDirectory().toString(), audit.getWritten(),
+                audit.getFailed(), Map.of("dropped", audit.getDropped(), "pending", audit.getPending()),
+                audit.getDelay()));
+        }
+
+        // The rows above are already copied out, so a reset doesn't change what this call returns.
+        if (reset) {
+            registry.reset();
+            log.info("metrics reset");
+        }
+        return results.stream();
+    }
+}
@@ -0,0 +1,82 @@
+package com.maxdemarzi.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All the metrics of the decision trees in this database: per Tree (by id), per Rule (by element id) and per cache.
+ * Set the system property <code>com.maxdemarzi.metrics.enabled</code> to false to stop recording.
+ */
+public class MetricsRegistry {
+
+    public static final String RULES = "rules";
+    public static final String COMPILED_TREES = "compiled trees";
+    public static final String SNAPSHOTS = "snapshots";
+    public static final String DECISIONS = "decisions";
+    public static final String BYTECODE = "rule bytecode";
+
+    private static final MetricsRegistry INSTANCE =
+        new MetricsRegistry(Boolean.parseBoolean(System.getProperty("com.maxdemarzi.metrics.enabled", "true")));
+
+    private final boolean enabled;
+    private final Map<String, TreeMetrics> trees = new ConcurrentHashMap<>();
+    private final Map<String, RuleMetrics> rules = new ConcurrentHashMap<>();
+    private final Map<String, CacheMetrics> caches = new ConcurrentHashMap<>();
+
+    // Handed out when disabled, never reported.
+    private final TreeMetrics noTree = new TreeMetrics();
+    private final RuleMetrics noRule = new RuleMetrics();
+    private final CacheMetrics noCache = new CacheMetrics();
+
+    public MetricsRegistry(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public TreeMetrics tree(String id) {
+        return enabled ? trees.computeIfAbsent(id, k -> new TreeMetrics()) : noTree;
+    }
+
+    public RuleMetrics rule(String ruleId) {
+        return enabled ? rules.computeIfAbsent(ruleId, k -> new RuleMetrics()) : noRule;
+    }
+
+    /**
+     * Forgets the metrics of a Rule that was deleted, so they don't pile up as Rules come and go.
+     */
+    public void removeRule(String ruleId) {
+        rules.remove(ruleId);
+    }
+
+    public CacheMetrics cache(String name) {
+        return enabled ? caches.computeIfAbsent(name, k -> new CacheMetrics()) : noCache;
+    }
+
+    public Map<String, TreeMetrics> getTrees() {
+        return trees;
+    }
+
+    public Map<String, RuleMetrics> getRules() {
+        return rules;
+    }
+
+    public Map<String, CacheMetrics> getCaches() {
+        return caches;
+    }
+
+    /**
+     * Zeroes every metric. Metrics are kept rather than removed, so holders of a reference keep recording.
+     */
+    public void reset() {
+        trees.values().forEach(TreeMetrics::reset);
+        rules.values().forEach(RuleMetrics::reset);
+        caches.values().forEach(CacheMetrics::reset);
+    }
+}
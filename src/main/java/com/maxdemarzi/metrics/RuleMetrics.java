@@ -0,0 +1,99 @@
+package com.maxdemarzi.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluations of a single Rule: how often each outcome was chosen, how long it took and how often it failed.
+ * Failures are the exceptions the expanders swallow when a rule can't be compiled or evaluated.
+ *
+ * Scripts can return any String, so only the first {@link #MAXIMUM_OUTCOMES} outcomes of a script are counted
+ * apart, any others are counted together as {@link #OTHER_OUTCOMES}.
+ */
+public class RuleMetrics {
+
+    public static final int MAXIMUM_OUTCOMES = 32;
+    public static final String OTHER_OUTCOMES = "OTHER";
+
+    private final LongAdder isTrue = new LongAdder();
+    private final LongAdder isFalse = new LongAdder();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final LongAdder others = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public void expression(long nanos, boolean outcome) {
+        (outcome ? isTrue : isFalse).increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Evaluations of an expression over a batch of rows, taking <var>nanos</var> altogether.
+     */
+    public void expressions(long nanos, long trues, long falses, long failures) {
+        isTrue.add(trues);
+        isFalse.add(falses);
+        errors.add(failures);
+        long evaluated = trues + falses + failures;
+        if (evaluated > 0) {
+            latency.record(nanos / evaluated, evaluated);
+        }
+    }
+
+    public void script(long nanos, String outcome) {
+        String key = String.valueOf(outcome);
+        LongAdder count = outcomes.get(key);
+        if (count == null) {
+            // Threads racing past the check can only add a few more than the maximum
+            count = outcomes.size() < MAXIMUM_OUTCOMES ? outcomes.computeIfAbsent(key, k -> new LongAdder()) : others;
+        }
+        count.increment();
+        latency.record(nanos);
+    }
+
+    public void error(long nanos) {
+        errors.increment();
+        latency.record(nanos);
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return how often each outcome was chosen, IS_TRUE and IS_FALSE for expressions
+     */
+    public Map<String, Object> getOutcomes() {
+        Map<String, Object> counts = new TreeMap<>();
+        if (isTrue.sum() > 0) {
+            counts.put("IS_TRUE", isTrue.sum());
+        }
+        if (isFalse.sum() > 0) {
+            counts.put("IS_FALSE", isFalse.sum());
+        }
+        outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+        if (others.sum() > 0) {
+            counts.merge(OTHER_OUTCOMES, others.sum(), (a, b) -> (Long) a + (Long) b);
+        }
+        return counts;
+    }
+
+    void reset() {
+        isTrue.reset();
+        isFalse.reset();
+        outcomes.clear();
+        others.reset();
+        errors.reset();
+        latency.reset();
+    }
+}
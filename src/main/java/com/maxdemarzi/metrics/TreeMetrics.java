@@ -0,0 +1,48 @@
+package com.maxdemarzi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Calls, Answers returned and call latency of a single Tree.
+ */
+public class TreeMetrics {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder answers = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Counts the call and the answers in the results as they are pulled, the latency is recorded when the
+     * results are closed so lazy traversals are measured up to the last row the client asked for.
+     */
+    public <T> Stream<T> track(long started, Stream<T> results, ToLongFunction<T> answersOf) {
+        calls.increment();
+        return results
+            .peek(result -> answers.add(answersOf.applyAsLong(result)))
+            .onClose(() -> latency.record(System.nanoTime() - started));
+    }
+
+    public <T> Stream<T> track(long started, Stream<T> results) {
+        return track(started, results, result -> 1);
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getAnswers() {
+        return answers.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    void reset() {
+        calls.reset();
+        answers.reset();
+        latency.reset();
+    }
+}
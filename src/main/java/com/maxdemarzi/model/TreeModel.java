@@ -0,0 +1,211 @@
+package com.maxdemarzi.model;
+
+import com.maxdemarzi.extension.TreeVersion;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleBytecode;
+import com.maxdemarzi.rules.RuleCache;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Tree read out of the graph once, with every node reachable from it given an index.
+ * The element at index 0 is the Tree itself. Relationships are kept in the order the expanders would follow them,
+ * HAS relationships in {@link Priorities} order.
+ */
+public class TreeModel {
+
+    private static final Logger log = LogManager.getLogger(TreeModel.class);
+
+    public enum Kind {
+        // An Answer, the traversal stops here
+        ANSWER,
+        // A node with HAS relationships, all of them are followed
+        BRANCH,
+        // A Rule with an expression, followed along IS_TRUE or IS_FALSE
+        EXPRESSION,
+        // A Rule with a script, followed along the relationship type it returns
+        SCRIPT,
+        // Anything else, the traversal can't continue from here
+        DEAD_END,
+    }
+
+    public static class Element {
+        public final int index;
+        public final String elementId;
+        public final Kind kind;
+        // Answer id, or Rule name if it has one
+        public final String name;
+        public final String parameterNames;
+        public final String parameterTypes;
+        public final String source;
+        // Classes stored for a Rule by com.maxdemarzi.rules.precompile, if any
+        public final RuleBytecode bytecode;
+        // Targets by relationship type, HAS for branches
+        public final Map<String, int[]> targets;
+
+        Element(int index, String elementId, Kind kind, String name, String parameterNames, String parameterTypes,
+                String source, RuleBytecode bytecode, Map<String, int[]> targets) {
+            this.index = index;
+            this.elementId = elementId;
+            this.kind = kind;
+            this.name = name;
+            this.parameterNames = parameterNames;
+            this.parameterTypes = parameterTypes;
+            this.source = source;
+            this.bytecode = bytecode;
+            this.targets = targets;
+        }
+
+        public int[] targets(String type) {
+            int[] found = targets.get(type);
+            return found == null ? new int[0] : found;
+        }
+
+        public boolean isRule() {
+            return kind == Kind.EXPRESSION || kind == Kind.SCRIPT;
+        }
+
+        /**
+         * @return the compiled expression or script of this Rule, or null if it does not compile
+         */
+        public CompiledRule compile() {
+            try {
+                CompiledRule.Kind ruleKind = kind == Kind.SCRIPT ? CompiledRule.Kind.SCRIPT : CompiledRule.Kind.EXPRESSION;
+                return RuleCache.getInstance().get(ruleKind, elementId, parameterNames, parameterTypes, source,
+                    () -> bytecode);
+            } catch (Exception e) {
+                log.error("error occurred while cooking rule {}: {}", elementId, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private final String treeId;
+    private final long version;
+    private final List<Element> elements;
+
+    private TreeModel(String treeId, long version, List<Element> elements) {
+        this.treeId = treeId;
+        this.version = version;
+        this.elements = elements;
+    }
+
+    /**
+     * Reads every node reachable from the given Tree node, the same way the expanders would walk them.
+     */
+    public static TreeModel load(Node tree) {
+        // Read the version before the graph, so a change committed while we read makes us stale rather than wrong.
+        long version = TreeVersion.current(tree.getElementId());
+
+        Map<String, Integer> indexes = new HashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        indexes.put(tree.getElementId(), 0);
+        nodes.add(tree);
+        queue.add(tree);
+
+        List<Kind> kinds = new ArrayList<>();
+        List<Map<String, List<Integer>>> edges = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            Kind kind = kind(node);
+            Map<String, List<Integer>> targets = new LinkedHashMap<>();
+            for (Relationship relationship : followed(node, kind)) {
+                Node target = relationship.getEndNode();
+                Integer index = indexes.get(target.getElementId());
+                if (index == null) {
+                    index = nodes.size();
+                    indexes.put(target.getElementId(), index);
+                    nodes.add(target);
+                    queue.add(target);
+                }
+                targets.computeIfAbsent(relationship.getType().name(), k -> new ArrayList<>()).add(index);
+            }
+            kinds.add(kind);
+            edges.add(targets);
+        }
+
+        List<Element> elements = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            Kind kind = kinds.get(i);
+            Map<String, int[]> targets = new LinkedHashMap<>();
+            edges.get(i).forEach((type, list) -> targets.put(type, list.stream().mapToInt(Integer::intValue).toArray()));
+            String name = (String) node.getProperty(kind == Kind.ANSWER ? "id" : "name", null);
+            String source = null;
+            if (kind == Kind.EXPRESSION) {
+                source = (String) node.getProperty("expression", null);
+            } else if (kind == Kind.SCRIPT) {
+                source = (String) node.getProperty("script", null);
+            }
+            elements.add(new Element(i, node.getElementId(), kind, name,
+                (String) node.getProperty("parameter_names", null),
+                (String) node.getProperty("parameter_types", null),
+                source,
+                kind == Kind.EXPRESSION || kind == Kind.SCRIPT ? RuleBytecode.of(node) : null,
+                Collections.unmodifiableMap(targets)));
+        }
+
+        return new TreeModel((String) tree.getProperty("id", null), version, Collections.unmodifiableList(elements));
+    }
+
+    private static Kind kind(Node node) {
+        if (node.hasLabel(Labels.Answer)) {
+            return Kind.ANSWER;
+        }
+        if (node.hasRelationship(Direction.OUTGOING, RelationshipTypes.HAS)) {
+            return Kind.BRANCH;
+        }
+        if (node.hasLabel(Labels.Rule)) {
+            return node.hasProperty("script") ? Kind.SCRIPT : Kind.EXPRESSION;
+        }
+        return Kind.DEAD_END;
+    }
+
+    private static Iterable<Relationship> followed(Node node, Kind kind) {
+        switch (kind) {
+            case BRANCH:
+                return Priorities.has(node);
+            case EXPRESSION:
+                return node.getRelationships(Direction.OUTGOING, RelationshipTypes.IS_TRUE, RelationshipTypes.IS_FALSE);
+            case SCRIPT:
+                return node.getRelationships(Direction.OUTGOING);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    public String getTreeId() {
+        return treeId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Element> getElements() {
+        return elements;
+    }
+
+    public Element get(int index) {
+        return elements.get(index);
+    }
+
+    public int size() {
+        return elements.size();
+    }
+}
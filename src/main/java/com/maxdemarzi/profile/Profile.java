@@ -0,0 +1,149 @@
+package com.maxdemarzi.profile;
+
+import org.neo4j.graphdb.Node;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The trace of a single profiled call: one {@link Step} per node the traversal expanded, and the time spent in
+ * each phase over the whole call. Allocated bytes come from the thread MXBean and are -1 where the JVM doesn't
+ * support measuring them. A Profile belongs to the thread running the call and is not thread safe.
+ */
+public class Profile {
+
+    public static final String FIND_NODE = "findNode";
+    public static final String PROPERTIES = "properties";
+    public static final String TYPES = "types";
+    public static final String COOK = "cook";
+    public static final String LOOKUP = "lookup";
+    public static final String ARGUMENTS = "arguments";
+    public static final String EVALUATE = "evaluate";
+    public static final String EXPAND = "expand";
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final long thread = Thread.currentThread().getId();
+    private final long startedAllocated = allocatedBytes();
+    private final long started = System.nanoTime();
+    private final List<Step> steps = new ArrayList<>();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun;
+            }
+        }
+        return null;
+    }
+
+    long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(thread);
+    }
+
+    public void phase(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    public Step step(Node node, String kind) {
+        Step step = new Step(node.getElementId(), kind, allocatedBytes());
+        steps.add(step);
+        return step;
+    }
+
+    public List<Map<String, Object>> getSteps() {
+        List<Map<String, Object>> maps = new ArrayList<>(steps.size());
+        for (Step step : steps) {
+            maps.add(step.toMap());
+        }
+        return maps;
+    }
+
+    public Map<String, Object> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    public long getTime() {
+        return System.nanoTime() - started;
+    }
+
+    public long getAllocatedBytes() {
+        return THREADS == null ? -1 : allocatedBytes() - startedAllocated;
+    }
+
+    /**
+     * What happened at a single node: the time spent in each phase, which rule fired, what it returned and which
+     * relationships were followed from there.
+     */
+    public class Step {
+
+        private final String node;
+        private final String kind;
+        private final long startedAllocated;
+        private final Map<String, Long> phases = new LinkedHashMap<>();
+        private String rule;
+        private Boolean cached;
+        private String outcome;
+        private String branch;
+        private long relationships;
+        private String error;
+        private long allocated = -1;
+
+        Step(String node, String kind, long startedAllocated) {
+            this.node = node;
+            this.kind = kind;
+            this.startedAllocated = startedAllocated;
+        }
+
+        public void phase(String phase, long nanos) {
+            phases.merge(phase, nanos, Long::sum);
+            Profile.this.phase(phase, nanos);
+        }
+
+        public void rule(String rule, boolean cached) {
+            this.rule = rule;
+            this.cached = cached;
+        }
+
+        public void outcome(String outcome) {
+            this.outcome = outcome;
+        }
+
+        public void branch(String branch, long relationships) {
+            this.branch = branch;
+            this.relationships = relationships;
+        }
+
+        public void error(Exception e) {
+            this.error = e.getCause() == null ? e.getMessage() : e.getCause().toString();
+        }
+
+        public void done() {
+            if (startedAllocated >= 0) {
+                allocated = allocatedBytes() - startedAllocated;
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("node", node);
+            map.put("kind", kind);
+            map.put("rule", rule);
+            map.put("cached", cached);
+            map.put("outcome", outcome);
+            map.put("branch", branch);
+            map.put("relationships", relationships);
+            map.put("phases", new LinkedHashMap<String, Object>(phases));
+            map.put("allocatedBytes", allocated);
+            map.put("error", error);
+            return map;
+        }
+    }
+}
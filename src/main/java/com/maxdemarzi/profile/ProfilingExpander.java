@@ -0,0 +1,142 @@
+package com.maxdemarzi.profile;
+
+import com.maxdemarzi.Magic;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleCache;
+import com.maxdemarzi.schema.Labels;
+import com.maxdemarzi.schema.Priorities;
+import com.maxdemarzi.schema.RelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.PathExpander;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterable;
+import org.neo4j.graphdb.traversal.BranchState;
+import org.neo4j.internal.helpers.collection.Iterables;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands like the {@link com.maxdemarzi.DecisionTreeExpander} and the {@link com.maxdemarzi.DecisionTreeExpanderTwo},
+ * evaluating the script of Rules that have one and the expression of the others, timing every phase of every node
+ * into a {@link Profile}.
+ *
+ * Relationships are read eagerly so their expansion is timed too. When a rule is not cached yet its parameter types
+ * are resolved once on their own to time the type resolution, and again as part of cooking the rule.
+ */
+public class ProfilingExpander implements PathExpander<String> {
+
+    private final Map<String, ?> facts;
+    private final Profile profile;
+
+    public ProfilingExpander(Map<String, ?> facts, Profile profile) {
+        this.facts = facts;
+        this.profile = profile;
+    }
+
+    @Override
+    public ResourceIterable<Relationship> expand(Path path, BranchState<String> branchState) {
+        Node node = path.endNode();
+        long started = System.nanoTime();
+
+        // If we get to an Answer stop traversing, we found a valid path.
+        if (node.hasLabel(Labels.Answer)) {
+            Profile.Step step = profile.step(node, "Answer");
+            step.phase(Profile.EXPAND, System.nanoTime() - started);
+            step.done();
+            return Iterables.emptyResourceIterable();
+        }
+
+        // If we have Rules to evaluate, go do that.
+        if (node.hasRelationship(Direction.OUTGOING, RelationshipTypes.HAS)) {
+            Profile.Step step = profile.step(node, "Branch");
+            List<Relationship> relationships = Iterables.asList(Priorities.has(node));
+            step.phase(Profile.EXPAND, System.nanoTime() - started);
+            step.branch(RelationshipTypes.HAS.name(), relationships.size());
+            step.done();
+            return Iterables.asResourceIterable(relationships);
+        }
+
+        if (node.hasLabel(Labels.Rule)) {
+            Profile.Step step = profile.step(node, "Rule");
+            step.phase(Profile.EXPAND, System.nanoTime() - started);
+            try {
+                return Iterables.asResourceIterable(rule(node, step));
+            } catch (Exception e) {
+                // Could not continue this way!
+                step.error(e);
+                return Iterables.emptyResourceIterable();
+            } finally {
+                step.done();
+            }
+        }
+
+        // Otherwise, not sure what to do really.
+        Profile.Step step = profile.step(node, "Other");
+        step.phase(Profile.EXPAND, System.nanoTime() - started);
+        step.done();
+        return Iterables.emptyResourceIterable();
+    }
+
+    private List<Relationship> rule(Node node, Profile.Step step) throws Exception {
+        long started = System.nanoTime();
+        boolean scripts = node.hasProperty("script");
+        String parameterNames = (String) node.getProperty("parameter_names", null);
+        String parameterTypes = (String) node.getProperty("parameter_types", null);
+        String source = (String) node.getProperty(scripts ? "script" : "expression", null);
+        String name = (String) node.getProperty("name", source);
+        step.phase(Profile.PROPERTIES, System.nanoTime() - started);
+
+        CompiledRule.Kind kind = scripts ? CompiledRule.Kind.SCRIPT : CompiledRule.Kind.EXPRESSION;
+        RuleCache cache = RuleCache.getInstance();
+        boolean cached = cache.isCached(kind, node.getElementId(), parameterNames, parameterTypes, source);
+        step.rule(name, cached);
+
+        if (!cached) {
+            started = System.nanoTime();
+            Magic.stringToTypes(parameterTypes);
+            step.phase(Profile.TYPES, System.nanoTime() - started);
+        }
+
+        started = System.nanoTime();
+        CompiledRule compiled = cache.get(kind, node.getElementId(), parameterNames, parameterTypes, source);
+        step.phase(cached ? Profile.LOOKUP : Profile.COOK, System.nanoTime() - started);
+
+        started = System.nanoTime();
+        Object[] arguments = compiled.arguments(facts);
+        step.phase(Profile.ARGUMENTS, System.nanoTime() - started);
+
+        started = System.nanoTime();
+        RelationshipType type;
+        if (scripts) {
+            String outcome = compiled.choosePath(arguments);
+            step.outcome(outcome);
+            type = RelationshipType.withName(outcome);
+        } else {
+            boolean outcome = compiled.isTrue(arguments);
+            step.outcome(String.valueOf(outcome));
+            type = outcome ? RelationshipTypes.IS_TRUE : RelationshipTypes.IS_FALSE;
+        }
+        step.phase(Profile.EVALUATE, System.nanoTime() - started);
+
+        started = System.nanoTime();
+        List<Relationship> relationships = relationships(node, type);
+        step.phase(Profile.EXPAND, System.nanoTime() - started);
+        step.branch(type.name(), relationships.size());
+        return relationships;
+    }
+
+    private static List<Relationship> relationships(Node node, RelationshipType type) {
+        try (ResourceIterable<Relationship> relationships = node.getRelationships(Direction.OUTGOING, type)) {
+            return Iterables.asList(relationships);
+        }
+    }
+
+    @Override
+    public PathExpander<String> reverse() {
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class BatchResult {
+
+    public final long index;
+    public final List<String> answers;
+
+    public BatchResult(long index, List<String> answers) {
+        this.index = index;
+        this.answers = answers;
+    }
+}
@@ -0,0 +1,50 @@
+package com.maxdemarzi.results;
+
+import com.maxdemarzi.schema.Labels;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A decision path without its nodes and relationships: the Answer id, and for every Rule on the way there its
+ * element id, its name (null if it has none) and the relationship type it was followed along.
+ */
+public class CompactResult {
+
+    public final String answer;
+    public final List<String> rules;
+    public final List<String> names;
+    public final List<String> outcomes;
+
+    public CompactResult(String answer, List<String> rules, List<String> names, List<String> outcomes) {
+        this.answer = answer;
+        this.rules = rules;
+        this.names = names;
+        this.outcomes = outcomes;
+    }
+
+    public CompactResult(Path path) {
+        List<String> rules = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> outcomes = new ArrayList<>();
+        Iterator<Relationship> relationships = path.relationships().iterator();
+        Node end = path.startNode();
+        for (Node node : path.nodes()) {
+            Relationship next = relationships.hasNext() ? relationships.next() : null;
+            if (next != null && node.hasLabel(Labels.Rule)) {
+                rules.add(node.getElementId());
+                names.add((String) node.getProperty("name", null));
+                outcomes.add(next.getType().name());
+            }
+            end = node;
+        }
+        this.answer = (String) end.getProperty("id", null);
+        this.rules = rules;
+        this.names = names;
+        this.outcomes = outcomes;
+    }
+}
@@ -0,0 +1,14 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class DecisionResult {
+
+    public final String answer;
+    public final List<String> rules;
+
+    public DecisionResult(String answer, List<String> rules) {
+        this.answer = answer;
+        this.rules = rules;
+    }
+}
@@ -0,0 +1,20 @@
+package com.maxdemarzi.results;
+
+public class ExportResult {
+
+    public final String tree;
+    public final long version;
+    public final long hash;
+    public final String file;
+    public final long nodes;
+    public final long bytes;
+
+    public ExportResult(String tree, long version, long hash, String file, long nodes, long bytes) {
+        this.tree = tree;
+        this.version = version;
+        this.hash = hash;
+        this.file = file;
+        this.nodes = nodes;
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,23 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class GenerateResult {
+
+    public final String tree;
+    public final long rules;
+    public final long answers;
+    public final long relationships;
+    public final long transactions;
+    public final List<String> facts;
+
+    public GenerateResult(String tree, long rules, long answers, long relationships, long transactions,
+                          List<String> facts) {
+        this.tree = tree;
+        this.rules = rules;
+        this.answers = answers;
+        this.relationships = relationships;
+        this.transactions = transactions;
+        this.facts = facts;
+    }
+}
@@ -0,0 +1,20 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+public class ImportResult {
+
+    public final List<String> trees;
+    public final long rules;
+    public final long answers;
+    public final long relationships;
+    public final long transactions;
+
+    public ImportResult(List<String> trees, long rules, long answers, long relationships, long transactions) {
+        this.trees = trees;
+        this.rules = rules;
+        this.answers = answers;
+        this.relationships = relationships;
+        this.transactions = transactions;
+    }
+}
@@ -0,0 +1,34 @@
+package com.maxdemarzi.results;
+
+import com.maxdemarzi.metrics.LatencyHistogram;
+
+import java.util.Map;
+
+public class MetricResult {
+
+    public final String scope;
+    public final String id;
+    public final long count;
+    public final long errors;
+    public final Map<String, Object> details;
+    // Latencies in microseconds, compile or load time for caches
+    public final double mean;
+    public final double p50;
+    public final double p90;
+    public final double p99;
+    public final double max;
+
+    public MetricResult(String scope, String id, long count, long errors, Map<String, Object> details,
+                        LatencyHistogram latency) {
+        this.scope = scope;
+        this.id = id;
+        this.count = count;
+        this.errors = errors;
+        this.details = details;
+        this.mean = latency.mean() / 1_000d;
+        this.p50 = latency.percentile(0.5) / 1_000d;
+        this.p90 = latency.percentile(0.9) / 1_000d;
+        this.p99 = latency.percentile(0.99) / 1_000d;
+        this.max = latency.max() / 1_000d;
+    }
+}
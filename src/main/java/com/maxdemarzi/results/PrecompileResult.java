@@ -0,0 +1,20 @@
+package com.maxdemarzi.results;
+
+public class PrecompileResult {
+
+    public final long rules;
+    public final long compiled;
+    public final long skipped;
+    public final long errors;
+    public final long bytes;
+    public final long transactions;
+
+    public PrecompileResult(long rules, long compiled, long skipped, long errors, long bytes, long transactions) {
+        this.rules = rules;
+        this.compiled = compiled;
+        this.skipped = skipped;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.transactions = transactions;
+    }
+}
@@ -0,0 +1,25 @@
+package com.maxdemarzi.results;
+
+import com.maxdemarzi.profile.Profile;
+import org.neo4j.graphdb.Path;
+
+import java.util.List;
+import java.util.Map;
+
+public class ProfileResult {
+
+    public final List<Path> paths;
+    public final List<Map<String, Object>> steps;
+    // Nanoseconds spent in each phase over the whole call
+    public final Map<String, Object> phases;
+    public final long time;
+    public final long allocatedBytes;
+
+    public ProfileResult(List<Path> paths, Profile profile) {
+        this.paths = paths;
+        this.steps = profile.getSteps();
+        this.phases = profile.getPhases();
+        this.time = profile.getTime();
+        this.allocatedBytes = profile.getAllocatedBytes();
+    }
+}
@@ -0,0 +1,22 @@
+package com.maxdemarzi.results;
+
+public class SnapshotResult {
+
+    public final String tree;
+    public final long version;
+    public final long nodes;
+    public final long rules;
+    public final long answers;
+    public final long facts;
+    public final long bytes;
+
+    public SnapshotResult(String tree, long version, long nodes, long rules, long answers, long facts, long bytes) {
+        this.tree = tree;
+        this.version = version;
+        this.nodes = nodes;
+        this.rules = rules;
+        this.answers = answers;
+        this.facts = facts;
+        this.bytes = bytes;
+    }
+}
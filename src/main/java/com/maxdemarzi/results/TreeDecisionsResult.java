@@ -0,0 +1,22 @@
+package com.maxdemarzi.results;
+
+import java.util.List;
+
+/**
+ * The Answers one Tree reached, and for each of them the element ids of the Rules on the way there. A Tree that
+ * doesn't exist is not <var>found</var> and reaches nothing.
+ */
+public class TreeDecisionsResult {
+
+    public final String tree;
+    public final List<String> answers;
+    public final List<List<String>> rules;
+    public final boolean found;
+
+    public TreeDecisionsResult(String tree, List<String> answers, List<List<String>> rules, boolean found) {
+        this.tree = tree;
+        this.answers = answers;
+        this.rules = rules;
+        this.found = found;
+    }
+}
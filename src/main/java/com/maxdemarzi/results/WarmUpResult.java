@@ -0,0 +1,22 @@
+package com.maxdemarzi.results;
+
+public class WarmUpResult {
+
+    public final String database;
+    public final String state;
+    public final long trees;
+    public final long warmed;
+    public final long errors;
+    public final long rules;
+    public final long millis;
+
+    public WarmUpResult(String database, String state, long trees, long warmed, long errors, long rules, long millis) {
+        this.database = database;
+        this.state = state;
+        this.trees = trees;
+        this.warmed = warmed;
+        this.errors = errors;
+        this.rules = rules;
+        this.millis = millis;
+    }
+}
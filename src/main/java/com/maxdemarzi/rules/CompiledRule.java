@@ -0,0 +1,275 @@
+package com.maxdemarzi.rules;
+
+import com.maxdemarzi.Magic;
+import com.maxdemarzi.metrics.RuleMetrics;
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.ExpressionEvaluator;
+import org.codehaus.janino.ScriptEvaluator;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A Rule whose <var>expression</var> or <var>script</var> has already been "cooked" by Janino, together with the
+ * parsed parameter names and types. Instances are immutable once built and can be shared between threads.
+ *
+ * The cooked method is called through a {@link MethodHandle} that converts each fact on the way in with the
+ * {@link Converters} for its parameter type, so there is no reflection and primitive parameters are never boxed.
+ * Rules handed out by the {@link RuleCache} record every evaluation in the {@link RuleMetrics} of their Rule node.
+ * Simple expressions are evaluated by a {@link RulePredicate} instead, without Janino.
+ */
+public class CompiledRule {
+
+    public enum Kind {
+        EXPRESSION,
+        SCRIPT,
+    }
+
+    private final Kind kind;
+    private final String parameterNamesSource;
+    private final String parameterTypesSource;
+    private final String source;
+    private final int signature;
+
+    private final String[] parameterNames;
+    private final Class<?>[] parameterTypes;
+
+    // (Object[] facts) -> boolean for expressions, (Object[] facts) -> String for scripts, null when interpreted
+    private final MethodHandle invoker;
+    private final RulePredicate predicate;
+
+    // Last time this rule was handed out by the cache, used for eviction.
+    private volatile long lastUsed;
+
+    // Set by the cache before the rule is shared, null for rules compiled outside of it.
+    private RuleMetrics metrics;
+
+    private CompiledRule(Kind kind, String parameterNamesSource, String parameterTypesSource, String source,
+                         Method method) {
+        this.kind = kind;
+        this.parameterNamesSource = parameterNamesSource;
+        this.parameterTypesSource = parameterTypesSource;
+        this.source = source;
+        this.signature = signature(kind, parameterNamesSource, parameterTypesSource, source);
+        this.parameterNames = Magic.explode(parameterNamesSource);
+        this.parameterTypes = Magic.stringToTypes(parameterTypesSource);
+        this.invoker = invoker(method, parameterTypes, kind == Kind.EXPRESSION ? boolean.class : String.class);
+        this.predicate = null;
+    }
+
+    private CompiledRule(String parameterNamesSource, String parameterTypesSource, String expression,
+                         RulePredicate predicate) {
+        this.kind = Kind.EXPRESSION;
+        this.parameterNamesSource = parameterNamesSource;
+        this.parameterTypesSource = parameterTypesSource;
+        this.source = expression;
+        this.signature = signature(kind, parameterNamesSource, parameterTypesSource, expression);
+        this.parameterNames = Magic.explode(parameterNamesSource);
+        this.parameterTypes = Magic.stringToTypes(parameterTypesSource);
+        this.invoker = null;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Interprets a boolean <var>expression</var> if it is simple enough, otherwise scans, parses, compiles and
+     * loads it.
+     */
+    public static CompiledRule expression(String parameterNames, String parameterTypes, String expression)
+        throws CompileException {
+        CompiledRule interpreted = interpreted(Kind.EXPRESSION, parameterNames, parameterTypes, expression);
+        if (interpreted != null) {
+            return interpreted;
+        }
+        ExpressionEvaluator ee = cookExpression(parameterNames, parameterTypes, expression);
+        return new CompiledRule(Kind.EXPRESSION, parameterNames, parameterTypes, expression, ee.getMethod());
+    }
+
+    /**
+     * Scans, parses, compiles and loads a <var>script</var> returning the name of the relationship type to follow.
+     */
+    public static CompiledRule script(String parameterNames, String parameterTypes, String script)
+        throws CompileException {
+        ScriptEvaluator se = cookScript(parameterNames, parameterTypes, script);
+        return new CompiledRule(Kind.SCRIPT, parameterNames, parameterTypes, script, se.getMethod());
+    }
+
+    /**
+     * @return the rule evaluated by a {@link RulePredicate}, or null if it is a script or not simple enough
+     */
+    public static CompiledRule interpreted(Kind kind, String parameterNames, String parameterTypes, String source) {
+        if (kind != Kind.EXPRESSION) {
+            return null;
+        }
+        RulePredicate predicate = RulePredicate.parse(parameterNames, parameterTypes, source);
+        return predicate == null ? null : new CompiledRule(parameterNames, parameterTypes, source, predicate);
+    }
+
+    /**
+     * Loads a rule from the classes it was compiled to before, without scanning, parsing or compiling it.
+     */
+    public static CompiledRule load(Kind kind, String parameterNames, String parameterTypes, String source,
+                                    RuleBytecode bytecode) throws IOException, ReflectiveOperationException {
+        return new CompiledRule(kind, parameterNames, parameterTypes, source, bytecode.load());
+    }
+
+    /**
+     * Compiles a rule to store its classes, see {@link RuleBytecode}.
+     */
+    public static RuleBytecode bytecode(Kind kind, String parameterNames, String parameterTypes, String source)
+        throws CompileException {
+        if (kind == Kind.EXPRESSION) {
+            ExpressionEvaluator ee = cookExpression(parameterNames, parameterTypes, source);
+            return RuleBytecode.of(kind, parameterNames, parameterTypes, source, ee.getMethod(), ee.getBytecodes());
+        }
+        ScriptEvaluator se = cookScript(parameterNames, parameterTypes, source);
+        return RuleBytecode.of(kind, parameterNames, parameterTypes, source, se.getMethod(), se.getBytecodes());
+    }
+
+    private static ExpressionEvaluator cookExpression(String parameterNames, String parameterTypes, String expression)
+        throws CompileException {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setParameters(Magic.explode(parameterNames), Magic.stringToTypes(parameterTypes));
+        ee.setExpressionType(boolean.class);
+        ee.cook(expression);
+        return ee;
+    }
+
+    private static ScriptEvaluator cookScript(String parameterNames, String parameterTypes, String script)
+        throws CompileException {
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setReturnType(String.class);
+        se.setParameters(Magic.explode(parameterNames), Magic.stringToTypes(parameterTypes));
+        se.cook(script);
+        return se;
+    }
+
+    private static MethodHandle invoker(Method method, Class<?>[] parameterTypes, Class<?> returnType) {
+        if (!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalStateException("Expected a static method but got " + method);
+        }
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            MethodHandle[] converters = new MethodHandle[parameterTypes.length];
+            for (int j = 0; j < parameterTypes.length; j++) {
+                converters[j] = Converters.forType(parameterTypes[j]);
+            }
+            return MethodHandles.filterArguments(handle, 0, converters)
+                .asSpreader(Object[].class, parameterTypes.length)
+                .asType(MethodType.methodType(returnType, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int signature(Kind kind, String parameterNames, String parameterTypes, String source) {
+        return Objects.hash(kind, parameterNames, parameterTypes, source);
+    }
+
+    /**
+     * @return true if this rule was compiled from exactly the given source and parameter signature
+     */
+    boolean matches(int signature, String parameterNames, String parameterTypes, String source) {
+        return this.signature == signature
+            && Objects.equals(this.source, source)
+            && Objects.equals(this.parameterNamesSource, parameterNames)
+            && Objects.equals(this.parameterTypesSource, parameterTypes);
+    }
+
+    /**
+     * Fills the arguments array with the facts for each parameter, as they were given.
+     * They are converted to their parameter types when the rule is evaluated.
+     */
+    public Object[] arguments(Map<String, ?> facts) {
+        Object[] arguments = new Object[parameterNames.length];
+        for (int j = 0; j < parameterNames.length; ++j) {
+            arguments[j] = facts.get(parameterNames[j]);
+        }
+        return arguments;
+    }
+
+    public boolean isTrue(Object[] arguments) throws InvocationTargetException {
+        long started = metrics == null ? 0 : System.nanoTime();
+        try {
+            boolean outcome = predicate != null ? predicate.test(arguments) : (boolean) invoker.invokeExact(arguments);
+            if (metrics != null) {
+                metrics.expression(System.nanoTime() - started, outcome);
+            }
+            return outcome;
+        } catch (Throwable t) {
+            if (metrics != null) {
+                metrics.error(System.nanoTime() - started);
+            }
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public String choosePath(Object[] arguments) throws InvocationTargetException {
+        long started = metrics == null ? 0 : System.nanoTime();
+        try {
+            String outcome = (String) invoker.invokeExact(arguments);
+            if (metrics != null) {
+                metrics.script(System.nanoTime() - started, outcome);
+            }
+            return outcome;
+        } catch (Throwable t) {
+            if (metrics != null) {
+                metrics.error(System.nanoTime() - started);
+            }
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * @return true if this rule is evaluated by a {@link RulePredicate} instead of a class compiled by Janino
+     */
+    public boolean isInterpreted() {
+        return predicate != null;
+    }
+
+    /**
+     * @return the interpreter of this rule, or null if it was compiled by Janino
+     */
+    public RulePredicate getPredicate() {
+        return predicate;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String[] getParameterNames() {
+        return parameterNames;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public RuleMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setMetrics(RuleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+}
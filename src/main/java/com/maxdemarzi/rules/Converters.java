@@ -0,0 +1,138 @@
+package com.maxdemarzi.rules;
+
+import com.maxdemarzi.Magic;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.List;
+
+/**
+ * Converts a fact, either a String or a native Cypher value (Long, Double, Boolean, List), to a rule parameter type.
+ * Primitive parameter types are converted straight to the primitive, without boxing.
+ */
+public class Converters {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    protected Converters() {}
+
+    /**
+     * @return a handle of type (Object) -> <var>type</var> converting a fact to the given parameter type
+     */
+    public static MethodHandle forType(Class<?> type) {
+        try {
+            if (type.isPrimitive() || type == String.class) {
+                String name = "to" + Character.toUpperCase(type.getSimpleName().charAt(0)) + type.getSimpleName().substring(1);
+                return LOOKUP.findStatic(Converters.class, name, MethodType.methodType(type, Object.class));
+            }
+            MethodHandle convert = LOOKUP.findStatic(Converters.class, "toObject",
+                MethodType.methodType(Object.class, Class.class, Object.class));
+            return MethodHandles.insertArguments(convert, 0, type).asType(MethodType.methodType(type, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        // Same as new Boolean(value), a missing fact is false
+        return value != null && Boolean.parseBoolean(value.toString());
+    }
+
+    public static char toChar(Object value) {
+        String s = string(value);
+        if (s.length() != 1) {
+            throw new IllegalArgumentException("Can not convert \"" + s + "\" to a char");
+        }
+        return s.charAt(0);
+    }
+
+    public static byte toByte(Object value) {
+        return value instanceof Number ? ((Number) value).byteValue() : Byte.parseByte(string(value));
+    }
+
+    public static short toShort(Object value) {
+        return value instanceof Number ? ((Number) value).shortValue() : Short.parseShort(string(value));
+    }
+
+    public static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(string(value));
+    }
+
+    public static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(string(value));
+    }
+
+    public static float toFloat(Object value) {
+        return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(string(value));
+    }
+
+    public static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(string(value));
+    }
+
+    public static String toString(Object value) {
+        if (value == null) {
+            throw new NullPointerException("Missing fact");
+        }
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+
+    /**
+     * Boxed types, arrays and anything else. Lists become arrays, Strings go through {@link Magic#createObject}.
+     */
+    public static Object toObject(Class<?> type, Object value) throws Exception {
+        if (type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof List && type.isArray()) {
+            List<?> list = (List<?>) value;
+            Class<?> component = type.getComponentType();
+            MethodHandle converter = forType(component);
+            Object array = Array.newInstance(component, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, invoke(converter, list.get(i)));
+            }
+            return array;
+        }
+        // Boxed parameter types are converted like their primitives
+        Class<?> primitive = unbox(type);
+        if (primitive != null) {
+            return invoke(forType(primitive), value);
+        }
+        return Magic.createObject(type, string(value));
+    }
+
+    private static Object invoke(MethodHandle converter, Object value) throws Exception {
+        try {
+            return converter.invoke(value);
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException(t);
+        }
+    }
+
+    private static Class<?> unbox(Class<?> type) {
+        if (type == Boolean.class) return boolean.class;
+        if (type == Character.class) return char.class;
+        if (type == Byte.class) return byte.class;
+        if (type == Short.class) return short.class;
+        if (type == Integer.class) return int.class;
+        if (type == Long.class) return long.class;
+        if (type == Float.class) return float.class;
+        if (type == Double.class) return double.class;
+        return null;
+    }
+
+    private static String string(Object value) {
+        if (value == null) {
+            throw new NullPointerException("Missing fact");
+        }
+        return value.toString();
+    }
+}
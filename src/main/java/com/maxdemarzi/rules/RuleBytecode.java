@@ -0,0 +1,164 @@
+package com.maxdemarzi.rules;
+
+import org.neo4j.graphdb.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The classes Janino generated for a Rule, stored on the Rule node by <code>com.maxdemarzi.rules.precompile</code>
+ * so the Rule can be loaded after a restart without scanning, parsing and compiling it again.
+ *
+ * The <var>bytecode</var> property holds the classes, the <var>bytecode_hash</var> property a hash of the kind,
+ * parameter signature and source they were compiled from. Bytecode is only used while that hash still matches the
+ * Rule, otherwise the Rule is compiled from its source as usual.
+ */
+public class RuleBytecode {
+
+    public static final String BYTECODE = "bytecode";
+    public static final String BYTECODE_HASH = "bytecode_hash";
+
+    private static final int FORMAT = 1;
+
+    private final String hash;
+    private final byte[] encoded;
+
+    public RuleBytecode(String hash, byte[] encoded) {
+        this.hash = hash;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @return true for the properties the bytecode is stored in, which are derived from the Rule and don't change it
+     */
+    public static boolean isBytecodeProperty(String key) {
+        return BYTECODE.equals(key) || BYTECODE_HASH.equals(key);
+    }
+
+    /**
+     * @return the bytecode stored on the given Rule node, or null if it has none
+     */
+    public static RuleBytecode of(Node rule) {
+        Object encoded = rule.getProperty(BYTECODE, null);
+        Object hash = rule.getProperty(BYTECODE_HASH, null);
+        if (!(encoded instanceof byte[]) || !(hash instanceof String)) {
+            return null;
+        }
+        return new RuleBytecode((String) hash, (byte[]) encoded);
+    }
+
+    static RuleBytecode of(CompiledRule.Kind kind, String parameterNames, String parameterTypes, String source,
+                           Method method, Map<String, byte[]> classes) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT);
+            out.writeUTF(method.getDeclaringClass().getName());
+            out.writeUTF(method.getName());
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.flush();
+            return new RuleBytecode(hash(kind, parameterNames, parameterTypes, source), bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a hex encoded SHA-256 of everything the generated classes depend on
+     */
+    public static String hash(CompiledRule.Kind kind, String parameterNames, String parameterTypes, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{kind.name(), parameterNames, parameterTypes, source}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if this bytecode was compiled from exactly the given source and parameter signature
+     */
+    public boolean matches(CompiledRule.Kind kind, String parameterNames, String parameterTypes, String source) {
+        return Objects.equals(hash, hash(kind, parameterNames, parameterTypes, source));
+    }
+
+    /**
+     * Defines the classes in a class loader of their own.
+     *
+     * @return the static method the Rule was compiled to
+     */
+    Method load() throws IOException, ReflectiveOperationException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        if (in.readInt() != FORMAT) {
+            throw new IOException("Unsupported bytecode format");
+        }
+        String className = in.readUTF();
+        String methodName = in.readUTF();
+        int count = in.readInt();
+        Map<String, byte[]> classes = new HashMap<>();
+        for (int c = 0; c < count; c++) {
+            String name = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            classes.put(name, bytes);
+        }
+
+        Class<?> clazz = new BytecodeClassLoader(classes, CompiledRule.class.getClassLoader()).loadClass(className);
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers())) {
+                return method;
+            }
+        }
+        throw new NoSuchMethodException(className + "." + methodName);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    private static class BytecodeClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        BytecodeClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.maxdemarzi.rules;
+
+import com.maxdemarzi.metrics.CacheMetrics;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.metrics.RuleMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.commons.compiler.CompileException;
+import org.neo4j.graphdb.Node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Shared, bounded cache of {@link CompiledRule}s so Janino only cooks a Rule once instead of on every traversal.
+ *
+ * Entries are keyed by the element id of the Rule node. An entry is only handed out if the hash of its
+ * expression/script text and parameter signature still matches the node, so a stale entry is never used even
+ * before the {@link com.maxdemarzi.extension.RuleChangeListener} gets around to invalidating it.
+ * When the cache grows past its maximum size the least recently used tenth of the entries is evicted.
+ * Rules with {@link RuleBytecode} stored on them are loaded from it instead of being compiled, unless they are simple
+ * enough to be interpreted by a {@link RulePredicate}.
+ */
+public class RuleCache {
+
+    private static final Logger log = LogManager.getLogger(RuleCache.class);
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private static final RuleCache INSTANCE =
+        new RuleCache(Integer.getInteger("com.maxdemarzi.rules.cache.size", DEFAULT_MAXIMUM_SIZE));
+
+    private final int maximumSize;
+    private final Map<String, CompiledRule> expressions = new ConcurrentHashMap<>();
+    private final Map<String, CompiledRule> scripts = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public RuleCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public static RuleCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the compiled boolean <var>expression</var> of the given Rule node
+     */
+    public CompiledRule expression(Node rule) throws CompileException {
+        String parameterNames = (String) rule.getProperty("parameter_names", null);
+        String parameterTypes = (String) rule.getProperty("parameter_types", null);
+        String expression = (String) rule.getProperty("expression", null);
+        return get(CompiledRule.Kind.EXPRESSION, rule.getElementId(), parameterNames, parameterTypes, expression,
+            () -> RuleBytecode.of(rule));
+    }
+
+    /**
+     * @return the compiled <var>script</var> of the given Rule node
+     */
+    public CompiledRule script(Node rule) throws CompileException {
+        String parameterNames = (String) rule.getProperty("parameter_names", null);
+        String parameterTypes = (String) rule.getProperty("parameter_types", null);
+        String script = (String) rule.getProperty("script", null);
+        return get(CompiledRule.Kind.SCRIPT, rule.getElementId(), parameterNames, parameterTypes, script,
+            () -> RuleBytecode.of(rule));
+    }
+
+    public CompiledRule get(CompiledRule.Kind kind, String ruleId, String parameterNames, String parameterTypes,
+                            String source) throws CompileException {
+        return get(kind, ruleId, parameterNames, parameterTypes, source, () -> null);
+    }
+
+    /**
+     * @param bytecode the classes stored for the Rule, only asked for when the rule is not cached yet
+     */
+    public CompiledRule get(CompiledRule.Kind kind, String ruleId, String parameterNames, String parameterTypes,
+                            String source, Supplier<RuleBytecode> bytecode) throws CompileException {
+        Map<String, CompiledRule> rules = kind == CompiledRule.Kind.EXPRESSION ? expressions : scripts;
+        int signature = CompiledRule.signature(kind, parameterNames, parameterTypes, source);
+
+        CompiledRule compiled = rules.get(ruleId);
+        CacheMetrics metrics = MetricsRegistry.getInstance().cache(MetricsRegistry.RULES);
+        if (compiled == null || !compiled.matches(signature, parameterNames, parameterTypes, source)) {
+            RuleMetrics ruleMetrics = MetricsRegistry.getInstance().rule(ruleId);
+            long started = System.nanoTime();
+            try {
+                // Simple expressions are interpreted, which is quicker than loading their classes
+                compiled = CompiledRule.interpreted(kind, parameterNames, parameterTypes, source);
+                if (compiled == null) {
+                    compiled = load(kind, ruleId, parameterNames, parameterTypes, source, bytecode.get());
+                }
+                if (compiled == null) {
+                    compiled = kind == CompiledRule.Kind.EXPRESSION
+                        ? CompiledRule.expression(parameterNames, parameterTypes, source)
+                        : CompiledRule.script(parameterNames, parameterTypes, source);
+                }
+            } catch (CompileException | RuntimeException e) {
+                metrics.error(System.nanoTime() - started);
+                ruleMetrics.error();
+                throw e;
+            }
+            metrics.miss(System.nanoTime() - started);
+            compiled.setMetrics(ruleMetrics);
+            rules.put(ruleId, compiled);
+            evictIfNeeded();
+        } else {
+            metrics.hit();
+        }
+        compiled.setLastUsed(clock.incrementAndGet());
+        return compiled;
+    }
+
+    /**
+     * @return the rule loaded from its stored classes, or null if it has none or they don't match its source
+     */
+    private static CompiledRule load(CompiledRule.Kind kind, String ruleId, String parameterNames, String parameterTypes,
+                                     String source, RuleBytecode bytecode) {
+        CacheMetrics metrics = MetricsRegistry.getInstance().cache(MetricsRegistry.BYTECODE);
+        if (bytecode == null || !bytecode.matches(kind, parameterNames, parameterTypes, source)) {
+            metrics.miss();
+            return null;
+        }
+        long started = System.nanoTime();
+        try {
+            CompiledRule compiled = CompiledRule.load(kind, parameterNames, parameterTypes, source, bytecode);
+            metrics.hit();
+            return compiled;
+        } catch (IOException | ReflectiveOperationException | RuntimeException | LinkageError e) {
+            log.warn("could not load the bytecode of rule {}, compiling it instead: {}", ruleId, e.getMessage());
+            metrics.error(System.nanoTime() - started);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if {@link #get} would hand out an already compiled rule for these arguments
+     */
+    public boolean isCached(CompiledRule.Kind kind, String ruleId, String parameterNames, String parameterTypes,
+                            String source) {
+        Map<String, CompiledRule> rules = kind == CompiledRule.Kind.EXPRESSION ? expressions : scripts;
+        CompiledRule compiled = rules.get(ruleId);
+        return compiled != null && compiled.matches(CompiledRule.signature(kind, parameterNames, parameterTypes, source),
+            parameterNames, parameterTypes, source);
+    }
+
+    /**
+     * Drops every compiled version of the given Rule node.
+     */
+    public void invalidate(String ruleId) {
+        expressions.remove(ruleId);
+        scripts.remove(ruleId);
+    }
+
+    public void clear() {
+        expressions.clear();
+        scripts.clear();
+    }
+
+    public int size() {
+        return expressions.size() + scripts.size();
+    }
+
+    private void evictIfNeeded() {
+        if (size() <= maximumSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int excess = size() - maximumSize;
+            if (excess <= 0) {
+                return;
+            }
+            // Evict a batch at once so we don't sort on every insert once we are full.
+            int toEvict = Math.max(excess, maximumSize / 10);
+            // Snapshot the access times, they keep moving while other threads use the cache.
+            List<Candidate> candidates = new ArrayList<>(size());
+            expressions.forEach((id, rule) -> candidates.add(new Candidate(id, rule)));
+            scripts.forEach((id, rule) -> candidates.add(new Candidate(id, rule)));
+            candidates.sort(Comparator.comparingLong(c -> c.lastUsed));
+            for (int i = 0; i < toEvict && i < candidates.size(); i++) {
+                Candidate candidate = candidates.get(i);
+                Map<String, CompiledRule> rules =
+                    candidate.rule.getKind() == CompiledRule.Kind.EXPRESSION ? expressions : scripts;
+                rules.remove(candidate.ruleId, candidate.rule);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Candidate {
+        private final String ruleId;
+        private final CompiledRule rule;
+        private final long lastUsed;
+
+        Candidate(String ruleId, CompiledRule rule) {
+            this.ruleId = ruleId;
+            this.rule = rule;
+            this.lastUsed = rule.getLastUsed();
+        }
+    }
+}
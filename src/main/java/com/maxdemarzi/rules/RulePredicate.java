@@ -0,0 +1,882 @@
+package com.maxdemarzi.rules;
+
+import com.maxdemarzi.Magic;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A small interpreter for the simple expressions most Rules are made of, so they don't need a class generated and
+ * loaded by Janino: comparisons of numbers and booleans, <code>equals</code> between Strings, <code>&amp;&amp;</code>,
+ * <code>||</code>, <code>!</code>, parentheses and int, long, float, double, String and boolean literals, over
+ * boolean, byte, short, int, long, float, double and String parameters. Like Java, <code>&lt;</code> and
+ * <code>==</code> promote to long, float or double as needed.
+ *
+ * Every fact is converted to its parameter type before the expression is evaluated, like Janino does, and stored in a
+ * per-thread slot of its type, so evaluating allocates nothing beyond what the {@link Converters} do. Parts made of
+ * literals only are folded into constants when the expression is parsed.
+ *
+ * A whole batch of rows can also be evaluated at once with {@link #test(Vectors, int)}, one simple loop over
+ * primitive arrays per node of the expression, which the JIT can unroll and vectorize.
+ *
+ * {@link #parse} returns null for anything else, which is compiled by Janino as before.
+ * Start Neo4j with <code>-Dcom.maxdemarzi.rules.interpreter.enabled=false</code> to compile every Rule.
+ */
+public final class RulePredicate {
+
+    public static final boolean ENABLED =
+        Boolean.parseBoolean(System.getProperty("com.maxdemarzi.rules.interpreter.enabled", "true"));
+
+    private enum Type {
+        BOOLEAN,
+        INTEGRAL,
+        FLOAT,
+        DOUBLE,
+        STRING,
+    }
+
+    private static final ThreadLocal<Slots> SLOTS = ThreadLocal.withInitial(Slots::new);
+
+    private final Class<?>[] parameterTypes;
+    private final Expression expression;
+
+    private RulePredicate(Class<?>[] parameterTypes, Expression expression) {
+        this.parameterTypes = parameterTypes;
+        this.expression = expression;
+    }
+
+    /**
+     * @return the interpreted <var>expression</var>, or null if it uses anything the interpreter doesn't support
+     */
+    public static RulePredicate parse(String parameterNames, String parameterTypes, String expression) {
+        if (!ENABLED || parameterNames == null || parameterTypes == null || expression == null) {
+            return null;
+        }
+        String[] names;
+        Class<?>[] types;
+        try {
+            names = Magic.explode(parameterNames);
+            types = Magic.stringToTypes(parameterTypes);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (names.length != types.length) {
+            return null;
+        }
+        for (Class<?> type : types) {
+            if (type(type) == null) {
+                return null;
+            }
+        }
+        Expression parsed = new Parser(expression, names, types).parse();
+        if (parsed == null || parsed.type != Type.BOOLEAN) {
+            return null;
+        }
+        return new RulePredicate(types, parsed);
+    }
+
+    /**
+     * @param arguments the facts for each parameter, as they were given
+     * @throws RuntimeException when a fact is missing or can't be converted to its parameter type
+     */
+    public boolean test(Object[] arguments) {
+        Slots slots = SLOTS.get();
+        slots.ensure(parameterTypes.length);
+        try {
+            for (int j = 0; j < parameterTypes.length; j++) {
+                Class<?> type = parameterTypes[j];
+                Object value = arguments[j];
+                if (type == boolean.class) {
+                    slots.booleans[j] = Converters.toBoolean(value);
+                } else if (type == String.class) {
+                    slots.strings[j] = Converters.toString(value);
+                } else if (type == int.class) {
+                    slots.longs[j] = Converters.toInt(value);
+                } else if (type == long.class) {
+                    slots.longs[j] = Converters.toLong(value);
+                } else if (type == short.class) {
+                    slots.longs[j] = Converters.toShort(value);
+                } else if (type == byte.class) {
+                    slots.longs[j] = Converters.toByte(value);
+                } else if (type == float.class) {
+                    slots.doubles[j] = Converters.toFloat(value);
+                } else {
+                    slots.doubles[j] = Converters.toDouble(value);
+                }
+            }
+            return expression.test(slots);
+        } finally {
+            // Don't keep the facts alive in the thread
+            for (int j = 0; j < parameterTypes.length; j++) {
+                slots.strings[j] = null;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the expression for <var>count</var> rows at once, with the facts already converted to their
+     * parameter types in <var>vectors</var>.
+     *
+     * @return the outcome of each row
+     */
+    public boolean[] test(Vectors vectors, int count) {
+        return expression.bools(vectors, count);
+    }
+
+    /**
+     * @return true if the whole expression folded into a constant
+     */
+    public boolean isConstant() {
+        return expression instanceof Constant;
+    }
+
+    private static Type type(Class<?> type) {
+        if (type == boolean.class) return Type.BOOLEAN;
+        if (type == byte.class || type == short.class || type == int.class || type == long.class) return Type.INTEGRAL;
+        if (type == float.class) return Type.FLOAT;
+        if (type == double.class) return Type.DOUBLE;
+        if (type == String.class) return Type.STRING;
+        return null;
+    }
+
+    private static boolean isNumeric(Type type) {
+        return type == Type.INTEGRAL || type == Type.FLOAT || type == Type.DOUBLE;
+    }
+
+    private static class Slots {
+        private boolean[] booleans = new boolean[0];
+        private long[] longs = new long[0];
+        private double[] doubles = new double[0];
+        private String[] strings = new String[0];
+
+        void ensure(int size) {
+            if (longs.length < size) {
+                booleans = new boolean[size];
+                longs = new long[size];
+                doubles = new double[size];
+                strings = new String[size];
+            }
+        }
+    }
+
+    /**
+     * The facts of a batch of rows for each parameter of a rule, one array per parameter: long for the integral
+     * types, double for float and double, boolean, or the codes of Strings in a dictionary shared by the batch,
+     * so equal Strings have equal codes.
+     */
+    public static class Vectors {
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final boolean[][] booleans;
+        private final int[][] codes;
+        private final Map<String, Integer> dictionary;
+
+        public Vectors(int parameters, Map<String, Integer> dictionary) {
+            this.longs = new long[parameters][];
+            this.doubles = new double[parameters][];
+            this.booleans = new boolean[parameters][];
+            this.codes = new int[parameters][];
+            this.dictionary = dictionary;
+        }
+
+        public void setLongs(int parameter, long[] values) {
+            longs[parameter] = values;
+        }
+
+        public void setDoubles(int parameter, double[] values) {
+            doubles[parameter] = values;
+        }
+
+        public void setBooleans(int parameter, boolean[] values) {
+            booleans[parameter] = values;
+        }
+
+        public void setCodes(int parameter, int[] values) {
+            codes[parameter] = values;
+        }
+    }
+
+    /**
+     * A node of the parsed expression. Each node only implements the operations of its {@link #type}, the parser
+     * checks the types of the operands before it builds a node, so the others are never called.
+     */
+    private abstract static class Expression {
+        final Type type;
+
+        Expression(Type type) {
+            this.type = type;
+        }
+
+        /**
+         * @return the error for an operation the parser should never have let be called on this node
+         */
+        IllegalStateException unsupported(String operation) {
+            return new IllegalStateException(getClass().getSimpleName() + " of type " + type + " does not support "
+                + operation);
+        }
+
+        boolean test(Slots slots) {
+            throw unsupported("test");
+        }
+
+        long asLong(Slots slots) {
+            throw unsupported("asLong");
+        }
+
+        double asDouble(Slots slots) {
+            return asLong(slots);
+        }
+
+        String asString(Slots slots) {
+            throw unsupported("asString");
+        }
+
+        boolean[] bools(Vectors vectors, int count) {
+            throw unsupported("bools");
+        }
+
+        long[] longs(Vectors vectors, int count) {
+            throw unsupported("longs");
+        }
+
+        double[] doubles(Vectors vectors, int count) {
+            long[] longs = longs(vectors, count);
+            double[] doubles = new double[count];
+            for (int i = 0; i < count; i++) {
+                doubles[i] = longs[i];
+            }
+            return doubles;
+        }
+
+        int[] codes(Vectors vectors, int count) {
+            throw unsupported("codes");
+        }
+    }
+
+    private static class Constant extends Expression {
+        private final boolean bool;
+        private final long integral;
+        private final double floating;
+        private final String string;
+
+        Constant(Type type, boolean bool, long integral, double floating, String string) {
+            super(type);
+            this.bool = bool;
+            this.integral = integral;
+            this.floating = floating;
+            this.string = string;
+        }
+
+        static Constant of(boolean value) {
+            return new Constant(Type.BOOLEAN, value, 0, 0, null);
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return bool;
+        }
+
+        @Override
+        long asLong(Slots slots) {
+            return integral;
+        }
+
+        @Override
+        double asDouble(Slots slots) {
+            return type == Type.INTEGRAL ? integral : floating;
+        }
+
+        @Override
+        String asString(Slots slots) {
+            return string;
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            boolean[] bools = new boolean[count];
+            Arrays.fill(bools, bool);
+            return bools;
+        }
+
+        @Override
+        long[] longs(Vectors vectors, int count) {
+            long[] longs = new long[count];
+            Arrays.fill(longs, integral);
+            return longs;
+        }
+
+        @Override
+        double[] doubles(Vectors vectors, int count) {
+            double[] doubles = new double[count];
+            Arrays.fill(doubles, type == Type.INTEGRAL ? integral : floating);
+            return doubles;
+        }
+
+        @Override
+        int[] codes(Vectors vectors, int count) {
+            // A String no row has never equals any of them
+            int[] codes = new int[count];
+            Arrays.fill(codes, vectors.dictionary.getOrDefault(string, -1));
+            return codes;
+        }
+    }
+
+    private static class Parameter extends Expression {
+        private final int slot;
+
+        Parameter(Type type, int slot) {
+            super(type);
+            this.slot = slot;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return slots.booleans[slot];
+        }
+
+        @Override
+        long asLong(Slots slots) {
+            return slots.longs[slot];
+        }
+
+        @Override
+        double asDouble(Slots slots) {
+            return type == Type.INTEGRAL ? slots.longs[slot] : slots.doubles[slot];
+        }
+
+        @Override
+        String asString(Slots slots) {
+            return slots.strings[slot];
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            return vectors.booleans[slot];
+        }
+
+        @Override
+        long[] longs(Vectors vectors, int count) {
+            return vectors.longs[slot];
+        }
+
+        @Override
+        double[] doubles(Vectors vectors, int count) {
+            return type == Type.INTEGRAL ? super.doubles(vectors, count) : vectors.doubles[slot];
+        }
+
+        @Override
+        int[] codes(Vectors vectors, int count) {
+            return vectors.codes[slot];
+        }
+    }
+
+    private static class Not extends Expression {
+        private final Expression operand;
+
+        Not(Expression operand) {
+            super(Type.BOOLEAN);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return !operand.test(slots);
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            boolean[] operand = this.operand.bools(vectors, count);
+            boolean[] bools = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                bools[i] = !operand[i];
+            }
+            return bools;
+        }
+    }
+
+    private static class And extends Expression {
+        private final Expression left;
+        private final Expression right;
+
+        And(Expression left, Expression right) {
+            super(Type.BOOLEAN);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return left.test(slots) && right.test(slots);
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            // Both sides are evaluated for every row, it is cheaper than branching on each of them
+            boolean[] left = this.left.bools(vectors, count);
+            boolean[] right = this.right.bools(vectors, count);
+            boolean[] bools = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                bools[i] = left[i] & right[i];
+            }
+            return bools;
+        }
+    }
+
+    private static class Or extends Expression {
+        private final Expression left;
+        private final Expression right;
+
+        Or(Expression left, Expression right) {
+            super(Type.BOOLEAN);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return left.test(slots) || right.test(slots);
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            boolean[] left = this.left.bools(vectors, count);
+            boolean[] right = this.right.bools(vectors, count);
+            boolean[] bools = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                bools[i] = left[i] | right[i];
+            }
+            return bools;
+        }
+    }
+
+    private static class StringEquals extends Expression {
+        private final Expression receiver;
+        private final Expression argument;
+
+        StringEquals(Expression receiver, Expression argument) {
+            super(Type.BOOLEAN);
+            this.receiver = receiver;
+            this.argument = argument;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            return receiver.asString(slots).equals(argument.asString(slots));
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            int[] receiver = this.receiver.codes(vectors, count);
+            int[] argument = this.argument.codes(vectors, count);
+            boolean[] bools = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                bools[i] = receiver[i] == argument[i];
+            }
+            return bools;
+        }
+    }
+
+    private static class Comparison extends Expression {
+        private final String operator;
+        // The type both sides are promoted to
+        private final Type promoted;
+        private final Expression left;
+        private final Expression right;
+
+        Comparison(String operator, Type promoted, Expression left, Expression right) {
+            super(Type.BOOLEAN);
+            this.operator = operator;
+            this.promoted = promoted;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Slots slots) {
+            switch (promoted) {
+                case BOOLEAN:
+                    return (left.test(slots) == right.test(slots)) == operator.equals("==");
+                case INTEGRAL:
+                    return compare(Long.compare(left.asLong(slots), right.asLong(slots)), false);
+                case FLOAT:
+                    float leftFloat = (float) left.asDouble(slots);
+                    float rightFloat = (float) right.asDouble(slots);
+                    return compare(leftFloat < rightFloat ? -1 : leftFloat > rightFloat ? 1 : 0,
+                        leftFloat != leftFloat || rightFloat != rightFloat);
+                default:
+                    double leftDouble = left.asDouble(slots);
+                    double rightDouble = right.asDouble(slots);
+                    return compare(leftDouble < rightDouble ? -1 : leftDouble > rightDouble ? 1 : 0,
+                        leftDouble != leftDouble || rightDouble != rightDouble);
+            }
+        }
+
+        @Override
+        boolean[] bools(Vectors vectors, int count) {
+            switch (promoted) {
+                case BOOLEAN:
+                    return compare(left.bools(vectors, count), right.bools(vectors, count), count);
+                case INTEGRAL:
+                    return compare(left.longs(vectors, count), right.longs(vectors, count), count);
+                case FLOAT:
+                    return compare(floats(left.doubles(vectors, count)), floats(right.doubles(vectors, count)), count);
+                default:
+                    return compare(left.doubles(vectors, count), right.doubles(vectors, count), count);
+            }
+        }
+
+        // One loop per operator, so each loop is a plain comparison of two arrays
+
+        private boolean[] compare(boolean[] left, boolean[] right, int count) {
+            boolean[] bools = new boolean[count];
+            boolean equal = operator.equals("==");
+            for (int i = 0; i < count; i++) {
+                bools[i] = (left[i] == right[i]) == equal;
+            }
+            return bools;
+        }
+
+        private boolean[] compare(long[] left, long[] right, int count) {
+            boolean[] bools = new boolean[count];
+            switch (operator) {
+                case "<": for (int i = 0; i < count; i++) bools[i] = left[i] < right[i]; break;
+                case "<=": for (int i = 0; i < count; i++) bools[i] = left[i] <= right[i]; break;
+                case ">": for (int i = 0; i < count; i++) bools[i] = left[i] > right[i]; break;
+                case ">=": for (int i = 0; i < count; i++) bools[i] = left[i] >= right[i]; break;
+                case "==": for (int i = 0; i < count; i++) bools[i] = left[i] == right[i]; break;
+                default: for (int i = 0; i < count; i++) bools[i] = left[i] != right[i]; break;
+            }
+            return bools;
+        }
+
+        private boolean[] compare(float[] left, float[] right, int count) {
+            boolean[] bools = new boolean[count];
+            switch (operator) {
+                case "<": for (int i = 0; i < count; i++) bools[i] = left[i] < right[i]; break;
+                case "<=": for (int i = 0; i < count; i++) bools[i] = left[i] <= right[i]; break;
+                case ">": for (int i = 0; i < count; i++) bools[i] = left[i] > right[i]; break;
+                case ">=": for (int i = 0; i < count; i++) bools[i] = left[i] >= right[i]; break;
+                case "==": for (int i = 0; i < count; i++) bools[i] = left[i] == right[i]; break;
+                default: for (int i = 0; i < count; i++) bools[i] = left[i] != right[i]; break;
+            }
+            return bools;
+        }
+
+        private boolean[] compare(double[] left, double[] right, int count) {
+            boolean[] bools = new boolean[count];
+            switch (operator) {
+                case "<": for (int i = 0; i < count; i++) bools[i] = left[i] < right[i]; break;
+                case "<=": for (int i = 0; i < count; i++) bools[i] = left[i] <= right[i]; break;
+                case ">": for (int i = 0; i < count; i++) bools[i] = left[i] > right[i]; break;
+                case ">=": for (int i = 0; i < count; i++) bools[i] = left[i] >= right[i]; break;
+                case "==": for (int i = 0; i < count; i++) bools[i] = left[i] == right[i]; break;
+                default: for (int i = 0; i < count; i++) bools[i] = left[i] != right[i]; break;
+            }
+            return bools;
+        }
+
+        private static float[] floats(double[] doubles) {
+            float[] floats = new float[doubles.length];
+            for (int i = 0; i < doubles.length; i++) {
+                floats[i] = (float) doubles[i];
+            }
+            return floats;
+        }
+
+        private boolean compare(int comparison, boolean nan) {
+            // Any comparison with NaN is false, except !=
+            if (nan) {
+                return operator.equals("!=");
+            }
+            switch (operator) {
+                case "<": return comparison < 0;
+                case "<=": return comparison <= 0;
+                case ">": return comparison > 0;
+                case ">=": return comparison >= 0;
+                case "==": return comparison == 0;
+                default: return comparison != 0;
+            }
+        }
+    }
+
+    /**
+     * Recursive descent over the expression, following Java precedence. Every method returns null as soon as it finds
+     * something outside of what we support.
+     */
+    private static class Parser {
+        private final String source;
+        private final String[] names;
+        private final Class<?>[] types;
+        private int position;
+
+        Parser(String source, String[] names, Class<?>[] types) {
+            this.source = source;
+            this.names = names;
+            this.types = types;
+        }
+
+        Expression parse() {
+            Expression expression = or();
+            skipWhitespace();
+            return position == source.length() ? expression : null;
+        }
+
+        private Expression or() {
+            Expression left = and();
+            while (left != null && accept("||")) {
+                Expression right = and();
+                if (right == null || left.type != Type.BOOLEAN || right.type != Type.BOOLEAN) {
+                    return null;
+                }
+                if (left instanceof Constant) {
+                    left = left.test(null) ? left : right;
+                } else if (right instanceof Constant) {
+                    left = right.test(null) ? right : left;
+                } else {
+                    left = new Or(left, right);
+                }
+            }
+            return left;
+        }
+
+        private Expression and() {
+            Expression left = equality();
+            while (left != null && accept("&&")) {
+                Expression right = equality();
+                if (right == null || left.type != Type.BOOLEAN || right.type != Type.BOOLEAN) {
+                    return null;
+                }
+                if (left instanceof Constant) {
+                    left = left.test(null) ? right : left;
+                } else if (right instanceof Constant) {
+                    left = right.test(null) ? left : right;
+                } else {
+                    left = new And(left, right);
+                }
+            }
+            return left;
+        }
+
+        private Expression equality() {
+            Expression left = relational();
+            while (left != null) {
+                String operator = accept("==") ? "==" : accept("!=") ? "!=" : null;
+                if (operator == null) {
+                    break;
+                }
+                left = comparison(operator, left, relational());
+            }
+            return left;
+        }
+
+        private Expression relational() {
+            Expression left = unary();
+            if (left == null) {
+                return null;
+            }
+            String operator = accept("<=") ? "<=" : accept(">=") ? ">=" : accept("<") ? "<" : accept(">") ? ">" : null;
+            if (operator == null) {
+                return left;
+            }
+            Expression comparison = comparison(operator, left, unary());
+            // Java doesn't allow a < b < c either
+            return comparison == null || peek("<") || peek(">") ? null : comparison;
+        }
+
+        private Expression comparison(String operator, Expression left, Expression right) {
+            if (right == null) {
+                return null;
+            }
+            Type promoted;
+            if (isNumeric(left.type) && isNumeric(right.type)) {
+                promoted = left.type == Type.DOUBLE || right.type == Type.DOUBLE ? Type.DOUBLE
+                    : left.type == Type.FLOAT || right.type == Type.FLOAT ? Type.FLOAT : Type.INTEGRAL;
+            } else if (left.type == Type.BOOLEAN && right.type == Type.BOOLEAN
+                && (operator.equals("==") || operator.equals("!="))) {
+                promoted = Type.BOOLEAN;
+            } else {
+                // Comparing Strings with == compares references, leave that to Janino
+                return null;
+            }
+            Comparison comparison = new Comparison(operator, promoted, left, right);
+            if (left instanceof Constant && right instanceof Constant) {
+                return Constant.of(comparison.test(null));
+            }
+            return comparison;
+        }
+
+        private Expression unary() {
+            if (accept("!")) {
+                // Not to be mistaken for !=
+                Expression operand = unary();
+                if (operand == null || operand.type != Type.BOOLEAN) {
+                    return null;
+                }
+                return operand instanceof Constant ? Constant.of(!operand.test(null)) : new Not(operand);
+            }
+            if (accept("-")) {
+                skipWhitespace();
+                return number(true);
+            }
+            return postfix(primary());
+        }
+
+        private Expression primary() {
+            skipWhitespace();
+            if (position == source.length()) {
+                return null;
+            }
+            char c = source.charAt(position);
+            if (c == '(') {
+                position++;
+                Expression expression = or();
+                return accept(")") ? expression : null;
+            }
+            if (c == '"') {
+                return string();
+            }
+            if (Character.isDigit(c)) {
+                return number(false);
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = position;
+                while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                    position++;
+                }
+                String identifier = source.substring(start, position);
+                for (int j = 0; j < names.length; j++) {
+                    if (names[j].equals(identifier)) {
+                        return new Parameter(type(types[j]), j);
+                    }
+                }
+                if (identifier.equals("true") || identifier.equals("false")) {
+                    return Constant.of(identifier.equals("true"));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * <code>.equals(argument)</code> on a String, the only method call we support.
+         */
+        private Expression postfix(Expression receiver) {
+            if (receiver == null || !accept(".")) {
+                return receiver;
+            }
+            if (receiver.type != Type.STRING || !accept("equals") || !accept("(")) {
+                return null;
+            }
+            Expression argument = or();
+            if (argument == null || argument.type != Type.STRING || !accept(")")) {
+                return null;
+            }
+            if (receiver instanceof Constant && argument instanceof Constant) {
+                return Constant.of(receiver.asString(null).equals(argument.asString(null)));
+            }
+            return postfix(new StringEquals(receiver, argument));
+        }
+
+        private Expression string() {
+            StringBuilder string = new StringBuilder();
+            position++;
+            while (position < source.length()) {
+                char c = source.charAt(position++);
+                if (c == '"') {
+                    return new Constant(Type.STRING, false, 0, 0, string.toString());
+                }
+                if (c == '\\') {
+                    if (position == source.length()) {
+                        return null;
+                    }
+                    char escaped = source.charAt(position++);
+                    switch (escaped) {
+                        case '"': case '\\': case '\'': string.append(escaped); break;
+                        case 'n': string.append('\n'); break;
+                        case 't': string.append('\t'); break;
+                        case 'r': string.append('\r'); break;
+                        default: return null;
+                    }
+                } else {
+                    string.append(c);
+                }
+            }
+            return null;
+        }
+
+        private Expression number(boolean negative) {
+            int start = position;
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                return null;
+            }
+            boolean floating = false;
+            if (position < source.length() && source.charAt(position) == '.') {
+                floating = true;
+                position++;
+                while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+            String digits = (negative ? "-" : "") + source.substring(start, position);
+            char suffix = position < source.length() ? Character.toLowerCase(source.charAt(position)) : ' ';
+            if (Character.isJavaIdentifierPart(suffix) && "lfd".indexOf(suffix) < 0) {
+                // Exponents, hex, underscores and the like
+                return null;
+            }
+            try {
+                if (suffix == 'f') {
+                    position++;
+                    return new Constant(Type.FLOAT, false, 0, Float.parseFloat(digits), null);
+                }
+                if (suffix == 'd' || floating) {
+                    position += suffix == 'd' ? 1 : 0;
+                    return new Constant(Type.DOUBLE, false, 0, Double.parseDouble(digits), null);
+                }
+                // Leading zeros make an octal literal
+                if (digits.length() > (negative ? 2 : 1) && digits.charAt(negative ? 1 : 0) == '0') {
+                    return null;
+                }
+                if (suffix == 'l') {
+                    position++;
+                    return new Constant(Type.INTEGRAL, false, Long.parseLong(digits), 0, null);
+                }
+                return new Constant(Type.INTEGRAL, false, Integer.parseInt(digits), 0, null);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if (!source.startsWith(token, position)) {
+                return false;
+            }
+            // Keep & from matching the start of &&, ! of != and so on
+            int end = position + token.length();
+            if (token.equals("!") || token.equals("<") || token.equals(">")) {
+                if (end < source.length() && source.charAt(end) == '=') {
+                    return false;
+                }
+            }
+            if (Character.isJavaIdentifierStart(token.charAt(0)) && end < source.length()
+                && Character.isJavaIdentifierPart(source.charAt(end))) {
+                return false;
+            }
+            position = end;
+            return true;
+        }
+
+        private boolean peek(String token) {
+            skipWhitespace();
+            return source.startsWith(token, position);
+        }
+
+        private void skipWhitespace() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
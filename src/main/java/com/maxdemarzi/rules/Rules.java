@@ -0,0 +1,83 @@
+package com.maxdemarzi.rules;
+
+import com.maxdemarzi.results.PrecompileResult;
+import com.maxdemarzi.schema.Labels;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class Rules {
+
+    // This field declares that we need a GraphDatabaseService
+    // as context when any procedure in this class is invoked
+    @Context
+    public GraphDatabaseService db;
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.rules.precompile", mode = Mode.WRITE)
+    @Description("CALL com.maxdemarzi.rules.precompile(batchSize, force) - compile every Rule and store its bytecode on it")
+    public Stream<PrecompileResult> precompile(@Name(value = "batchSize", defaultValue = "10000") long batchSize,
+                                               @Name(value = "force", defaultValue = "false") boolean force) {
+        List<String> ruleIds = new ArrayList<>();
+        try (Transaction tx = db.beginTx(); ResourceIterator<Node> rules = tx.findNodes(Labels.Rule)) {
+            rules.forEachRemaining(rule -> ruleIds.add(rule.getElementId()));
+        }
+
+        long compiled = 0;
+        long skipped = 0;
+        long errors = 0;
+        long bytes = 0;
+        long transactions = 0;
+        // Written in transactions of its own, so all the rules don't have to fit in a single one
+        for (int from = 0; from < ruleIds.size(); from += Math.max(1, batchSize)) {
+            int to = (int) Math.min(ruleIds.size(), from + Math.max(1, batchSize));
+            try (Transaction tx = db.beginTx()) {
+                for (String ruleId : ruleIds.subList(from, to)) {
+                    Node rule = tx.getNodeByElementId(ruleId);
+                    CompiledRule.Kind kind = rule.hasProperty("script") ? CompiledRule.Kind.SCRIPT : CompiledRule.Kind.EXPRESSION;
+                    String parameterNames = (String) rule.getProperty("parameter_names", null);
+                    String parameterTypes = (String) rule.getProperty("parameter_types", null);
+                    String source = (String) rule.getProperty(kind == CompiledRule.Kind.SCRIPT ? "script" : "expression", null);
+
+                    RuleBytecode stored = RuleBytecode.of(rule);
+                    if (!force && stored != null && stored.matches(kind, parameterNames, parameterTypes, source)) {
+                        skipped++;
+                        continue;
+                    }
+                    try {
+                        RuleBytecode bytecode = CompiledRule.bytecode(kind, parameterNames, parameterTypes, source);
+                        rule.setProperty(RuleBytecode.BYTECODE, bytecode.getEncoded());
+                        rule.setProperty(RuleBytecode.BYTECODE_HASH, bytecode.getHash());
+                        compiled++;
+                        bytes += bytecode.getEncoded().length;
+                    } catch (Exception e) {
+                        // Whatever was stored no longer matches, so it would never be used again.
+                        log.error("error occurred while precompiling rule {}: {}", ruleId, e.getMessage());
+                        rule.removeProperty(RuleBytecode.BYTECODE);
+                        rule.removeProperty(RuleBytecode.BYTECODE_HASH);
+                        errors++;
+                    }
+                }
+                tx.commit();
+                transactions++;
+            }
+        }
+        log.info("precompiled {} of {} rules into {} bytes, {} errors", compiled, ruleIds.size(), bytes, errors);
+        return Stream.of(new PrecompileResult(ruleIds.size(), compiled, skipped, errors, bytes, transactions));
+    }
+}
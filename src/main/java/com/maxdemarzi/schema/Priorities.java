@@ -0,0 +1,43 @@
+package com.maxdemarzi.schema;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterable;
+import org.neo4j.internal.helpers.collection.Iterables;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The order HAS relationships are followed in: by their <var>priority</var> property, lowest first.
+ * Relationships without a priority come after those with one, in the order the database returns them.
+ * Walking a Tree in this order and stopping at the first Answer gives the first decisive Answer.
+ */
+public class Priorities {
+
+    public static final String PRIORITY = "priority";
+
+    protected Priorities() {}
+
+    public static ResourceIterable<Relationship> has(Node node) {
+        List<Relationship> relationships;
+        try (ResourceIterable<Relationship> found = node.getRelationships(Direction.OUTGOING, RelationshipTypes.HAS)) {
+            relationships = new ArrayList<>(Iterables.asList(found));
+        }
+        if (relationships.size() > 1) {
+            // List.sort is stable, so equal priorities keep their order.
+            relationships.sort(Comparator.comparingLong(Priorities::priority));
+        }
+        return Iterables.asResourceIterable(relationships);
+    }
+
+    public static long priority(Relationship relationship) {
+        return priority(relationship.getProperty(PRIORITY, null));
+    }
+
+    public static long priority(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,305 @@
+package com.maxdemarzi.snapshot;
+
+import com.maxdemarzi.metrics.RuleMetrics;
+import com.maxdemarzi.results.DecisionResult;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.Converters;
+import com.maxdemarzi.rules.RulePredicate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a {@link TreeSnapshot} for a whole batch of facts at once, column by column instead of row by row.
+ *
+ * The facts the Rules read are converted once per batch into a primitive column per fact name and parameter type:
+ * long for the integral types, double for float and double, boolean, and the codes of Strings in a dictionary shared
+ * by the batch. The tree is then walked once, with a selection vector of the rows that reached each node. Rules the
+ * {@link RulePredicate} can interpret are evaluated for all of those rows at once, in plain loops over primitive
+ * arrays, and the rows are split into those following IS_TRUE and those following IS_FALSE. Other Rules are
+ * evaluated row by row as usual.
+ *
+ * Every row visits the nodes in the same order as it does in {@link TreeSnapshot#evaluate(Object[], boolean)}, so it
+ * reaches the same Answers in the same order, by way of the same Rules. The rows of a selection all got there the same
+ * way, so they share the path of the walk. Instances are used for a single batch by a single thread.
+ */
+public class ColumnarBatch {
+
+    private final TreeSnapshot snapshot;
+    private final List<? extends Map<String, ?>> facts;
+    private final int rows;
+    private final boolean firstMatch;
+
+    // Shared by every String column, so equal Strings have equal codes
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    // Per fact slot, its column for each parameter type it is read as
+    private final List<Map<Class<?>, Column>> columns;
+    // Facts in slot order for the rules evaluated row by row, filled in as they are needed
+    private final Object[][] values;
+    // For nodes reached by more than one relationship, the rows that already visited them
+    private final BitSet[] visited;
+    // The element ids of the Rules on the way to the node visited
+    private final ArrayList<String> path = new ArrayList<>();
+    private final List<List<DecisionResult>> results;
+
+    private ColumnarBatch(TreeSnapshot snapshot, List<? extends Map<String, ?>> facts, boolean firstMatch) {
+        this.snapshot = snapshot;
+        this.facts = facts;
+        this.rows = facts.size();
+        this.firstMatch = firstMatch;
+        this.columns = new ArrayList<>(snapshot.factNames.length);
+        for (int s = 0; s < snapshot.factNames.length; s++) {
+            columns.add(new HashMap<>());
+        }
+        this.values = new Object[rows][];
+
+        int nodes = snapshot.kinds.length;
+        int[] incoming = new int[nodes];
+        for (int target : snapshot.targets) {
+            incoming[target]++;
+        }
+        this.visited = new BitSet[nodes];
+        for (int n = 0; n < nodes; n++) {
+            if (incoming[n] > 1) {
+                visited[n] = new BitSet(rows);
+            }
+        }
+        this.results = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            results.add(new ArrayList<>(1));
+        }
+    }
+
+    /**
+     * @return the Answers each facts map reaches and the Rules on the way to them, in the order of the facts, or
+     * only the first of them when <var>firstMatch</var> is set
+     */
+    public static List<List<DecisionResult>> evaluate(TreeSnapshot snapshot, List<? extends Map<String, ?>> facts,
+                                              boolean firstMatch) {
+        ColumnarBatch batch = new ColumnarBatch(snapshot, facts, firstMatch);
+        int[] all = new int[batch.rows];
+        for (int row = 0; row < all.length; row++) {
+            all[row] = row;
+        }
+        if (all.length > 0) {
+            batch.visit(0, all, all.length);
+        }
+        return batch.results;
+    }
+
+    private void visit(int n, int[] selection, int count) {
+        // Drop the rows that are done or were here before
+        if (firstMatch || visited[n] != null) {
+            int[] kept = new int[count];
+            int size = 0;
+            for (int k = 0; k < count; k++) {
+                int row = selection[k];
+                if (firstMatch && !results.get(row).isEmpty()) {
+                    continue;
+                }
+                if (visited[n] != null) {
+                    if (visited[n].get(row)) {
+                        continue;
+                    }
+                    visited[n].set(row);
+                }
+                kept[size++] = row;
+            }
+            selection = kept;
+            count = size;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        switch (snapshot.kinds[n]) {
+            case TreeSnapshot.ANSWER:
+                List<String> rules = List.copyOf(path);
+                for (int k = 0; k < count; k++) {
+                    results.get(selection[k]).add(new DecisionResult(snapshot.answers[n], rules));
+                }
+                return;
+            case TreeSnapshot.BRANCH:
+                visitAll(snapshot.outcomeOffsets[n], selection, count);
+                return;
+            case TreeSnapshot.EXPRESSION:
+            case TreeSnapshot.SCRIPT:
+                CompiledRule rule = snapshot.rules[n];
+                if (rule == null) {
+                    return;
+                }
+                int[] chosen = rule.getPredicate() != null && snapshot.kinds[n] == TreeSnapshot.EXPRESSION
+                    ? vectorized(n, rule, selection, count)
+                    : rowByRow(n, selection, count);
+                // Every row goes down the one outcome its rule chose
+                path.add(snapshot.ruleIds[n]);
+                for (int o = snapshot.outcomeOffsets[n]; o < snapshot.outcomeOffsets[n + 1]; o++) {
+                    int[] taken = new int[count];
+                    int size = 0;
+                    for (int k = 0; k < count; k++) {
+                        if (chosen[k] == o) {
+                            taken[size++] = selection[k];
+                        }
+                    }
+                    if (size > 0) {
+                        visitAll(o, taken, size);
+                    }
+                }
+                path.remove(path.size() - 1);
+                return;
+            default:
+        }
+    }
+
+    private void visitAll(int outcome, int[] selection, int count) {
+        for (int t = snapshot.targetOffsets[outcome]; t < snapshot.targetOffsets[outcome + 1]; t++) {
+            visit(snapshot.targets[t], selection, count);
+        }
+    }
+
+    /**
+     * @return the outcome chosen for each selected row, -1 where the rule can't be evaluated
+     */
+    private int[] vectorized(int n, CompiledRule rule, int[] selection, int count) {
+        Class<?>[] types = rule.getParameterTypes();
+        int[] slots = snapshot.parameterSlots[n];
+        RulePredicate.Vectors vectors = new RulePredicate.Vectors(types.length, dictionary);
+        boolean[] failed = new boolean[count];
+        for (int j = 0; j < types.length; j++) {
+            column(slots[j], types[j]).gather(selection, count, vectors, j, failed);
+        }
+
+        long started = System.nanoTime();
+        boolean[] outcomes = rule.getPredicate().test(vectors, count);
+        long elapsed = System.nanoTime() - started;
+
+        // IS_TRUE first, IS_FALSE second
+        int isTrue = snapshot.outcomeOffsets[n];
+        int[] chosen = new int[count];
+        long trues = 0;
+        long failures = 0;
+        for (int k = 0; k < count; k++) {
+            if (failed[k]) {
+                chosen[k] = -1;
+                failures++;
+            } else if (outcomes[k]) {
+                chosen[k] = isTrue;
+                trues++;
+            } else {
+                chosen[k] = isTrue + 1;
+            }
+        }
+        RuleMetrics metrics = rule.getMetrics();
+        if (metrics != null) {
+            metrics.expressions(elapsed, trues, count - trues - failures, failures);
+        }
+        return chosen;
+    }
+
+    private int[] rowByRow(int n, int[] selection, int count) {
+        int[] chosen = new int[count];
+        for (int k = 0; k < count; k++) {
+            int row = selection[k];
+            if (values[row] == null) {
+                values[row] = snapshot.slots(facts.get(row));
+            }
+            chosen[k] = snapshot.choose(n, values[row]);
+        }
+        return chosen;
+    }
+
+    private Column column(int slot, Class<?> type) {
+        return columns.get(slot).computeIfAbsent(type, k -> new Column(snapshot.factNames[slot], type));
+    }
+
+    /**
+     * One fact of every row converted to a parameter type, with the rows where it is missing or malformed marked
+     * invalid. Rules fail on those rows, like they do when they are evaluated one row at a time.
+     */
+    private class Column {
+        private long[] longs;
+        private double[] doubles;
+        private boolean[] booleans;
+        private int[] codes;
+        // Null while every row is valid
+        private boolean[] invalid;
+
+        Column(String name, Class<?> type) {
+            if (type == String.class) {
+                codes = new int[rows];
+            } else if (type == boolean.class) {
+                booleans = new boolean[rows];
+            } else if (type == float.class || type == double.class) {
+                doubles = new double[rows];
+            } else {
+                longs = new long[rows];
+            }
+            for (int row = 0; row < rows; row++) {
+                Object value = facts.get(row).get(name);
+                try {
+                    if (type == String.class) {
+                        codes[row] = dictionary.computeIfAbsent(Converters.toString(value), s -> dictionary.size());
+                    } else if (type == boolean.class) {
+                        booleans[row] = Converters.toBoolean(value);
+                    } else if (type == int.class) {
+                        longs[row] = Converters.toInt(value);
+                    } else if (type == long.class) {
+                        longs[row] = Converters.toLong(value);
+                    } else if (type == short.class) {
+                        longs[row] = Converters.toShort(value);
+                    } else if (type == byte.class) {
+                        longs[row] = Converters.toByte(value);
+                    } else if (type == float.class) {
+                        doubles[row] = Converters.toFloat(value);
+                    } else {
+                        doubles[row] = Converters.toDouble(value);
+                    }
+                } catch (RuntimeException e) {
+                    if (invalid == null) {
+                        invalid = new boolean[rows];
+                    }
+                    invalid[row] = true;
+                }
+            }
+        }
+
+        /**
+         * Copies the selected rows into contiguous arrays, so the rule is evaluated over dense vectors.
+         */
+        void gather(int[] selection, int count, RulePredicate.Vectors vectors, int parameter, boolean[] failed) {
+            if (longs != null) {
+                long[] gathered = new long[count];
+                for (int k = 0; k < count; k++) {
+                    gathered[k] = longs[selection[k]];
+                }
+                vectors.setLongs(parameter, gathered);
+            } else if (doubles != null) {
+                double[] gathered = new double[count];
+                for (int k = 0; k < count; k++) {
+                    gathered[k] = doubles[selection[k]];
+                }
+                vectors.setDoubles(parameter, gathered);
+            } else if (booleans != null) {
+                boolean[] gathered = new boolean[count];
+                for (int k = 0; k < count; k++) {
+                    gathered[k] = booleans[selection[k]];
+                }
+                vectors.setBooleans(parameter, gathered);
+            } else {
+                int[] gathered = new int[count];
+                for (int k = 0; k < count; k++) {
+                    gathered[k] = codes[selection[k]];
+                }
+                vectors.setCodes(parameter, gathered);
+            }
+            if (invalid != null) {
+                for (int k = 0; k < count; k++) {
+                    failed[k] |= invalid[selection[k]];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.maxdemarzi.snapshot;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The bounded fork join pool wide trees are evaluated on in parallel, shared by every procedure call.
+ * Set the system property <code>com.maxdemarzi.parallelism</code> to change its size, the number of processors
+ * by default.
+ */
+public final class EvaluationPool {
+
+    private static final ForkJoinPool POOL =
+        new ForkJoinPool(Integer.getInteger("com.maxdemarzi.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    private EvaluationPool() {}
+
+    public static ForkJoinPool getInstance() {
+        return POOL;
+    }
+}
@@ -0,0 +1,110 @@
+package com.maxdemarzi.snapshot;
+
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.Converters;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Remembers what the rules evaluated against one set of facts decided, so a Rule node shared by several trees, or a
+ * rule with the same source and parameters as one already evaluated, is only evaluated once for those facts.
+ * Facts given as Strings are converted to each primitive parameter type once and handed to later rules converted.
+ *
+ * Only good for a single set of facts and a single thread, it is thrown away at the end of the call.
+ */
+public class RuleMemo {
+
+    // What a rule that threw or can't be evaluated decided, so the failure is remembered too
+    private static final Object FAILED = new Object();
+
+    private final Map<Key, Object> decided = new HashMap<>();
+    private final Map<String, Map<Class<?>, Object>> converted = new HashMap<>();
+    private long evaluated;
+    private long reused;
+
+    /**
+     * @return the Boolean or String the rule decided, or null if it failed
+     */
+    Object decide(CompiledRule rule, Supplier<Object> evaluate) {
+        Key key = new Key(rule);
+        Object outcome = decided.get(key);
+        if (outcome == null) {
+            evaluated++;
+            outcome = evaluate.get();
+            decided.put(key, outcome == null ? FAILED : outcome);
+        } else {
+            reused++;
+        }
+        return outcome == FAILED ? null : outcome;
+    }
+
+    /**
+     * @return the fact converted to the primitive parameter type, or as it was if it isn't a String or can't be
+     * converted, leaving the rule to fail on it as it would have
+     */
+    Object argument(String name, Class<?> type, Object value) {
+        if (!(value instanceof String) || !type.isPrimitive() || type == char.class) {
+            return value;
+        }
+        return converted.computeIfAbsent(name, k -> new HashMap<>(4)).computeIfAbsent(type, k -> {
+            try {
+                return Converters.forType(type).invoke(value);
+            } catch (Throwable t) {
+                return value;
+            }
+        });
+    }
+
+    /**
+     * @return the rules evaluated
+     */
+    public long getEvaluated() {
+        return evaluated;
+    }
+
+    /**
+     * @return the rules whose outcome was already known
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    private static class Key {
+        private final CompiledRule.Kind kind;
+        private final String source;
+        private final String[] parameterNames;
+        private final Class<?>[] parameterTypes;
+        private final int hash;
+
+        Key(CompiledRule rule) {
+            this.kind = rule.getKind();
+            this.source = rule.getSource();
+            this.parameterNames = rule.getParameterNames();
+            this.parameterTypes = rule.getParameterTypes();
+            this.hash = Objects.hash(kind, source, Arrays.hashCode(parameterNames), Arrays.hashCode(parameterTypes));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && kind == other.kind && source.equals(other.source)
+                && Arrays.equals(parameterNames, other.parameterNames)
+                && Arrays.equals(parameterTypes, other.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.maxdemarzi.snapshot;
+
+import com.maxdemarzi.extension.TreeVersion;
+import com.maxdemarzi.extension.VersionedCache;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.model.TreeModel;
+import org.neo4j.graphdb.Node;
+
+import java.util.List;
+
+/**
+ * Keeps a {@link TreeSnapshot} of each Tree that was evaluated, keyed by the element id of the Tree node.
+ * A snapshot is built once per {@link TreeVersion} of its Tree, callers asking for it while it is built wait for it.
+ * Transactions that changed the tree but have not committed yet get a snapshot of their own, which is not kept.
+ */
+public class SnapshotCache {
+
+    private static final SnapshotCache INSTANCE = new SnapshotCache();
+
+    private final VersionedCache<TreeSnapshot, RuntimeException> snapshots =
+        new VersionedCache<>(RuntimeException.class);
+
+    public static SnapshotCache getInstance() {
+        return INSTANCE;
+    }
+
+    public TreeSnapshot get(Node tree) {
+        return snapshots.get(tree, MetricsRegistry.getInstance().cache(MetricsRegistry.SNAPSHOTS),
+            node -> TreeSnapshot.of(TreeModel.load(node)));
+    }
+
+    public List<TreeSnapshot> list() {
+        return snapshots.values();
+    }
+
+    public void evict(String treeId) {
+        snapshots.evict(treeId);
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+}
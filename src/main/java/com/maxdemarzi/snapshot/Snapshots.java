@@ -0,0 +1,29 @@
+package com.maxdemarzi.snapshot;
+
+import com.maxdemarzi.results.SnapshotResult;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Procedure;
+
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class Snapshots {
+
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Procedure(name = "com.maxdemarzi.snapshot.list", mode = Mode.READ)
+    @Description("CALL com.maxdemarzi.snapshot.list() - list the tree snapshots loaded in memory and their size")
+    public Stream<SnapshotResult> list() {
+        return SnapshotCache.getInstance().list().stream()
+            .sorted(Comparator.comparing(TreeSnapshot::getTreeId, Comparator.nullsLast(Comparator.naturalOrder())))
+            .map(snapshot -> new SnapshotResult(snapshot.getTreeId(), snapshot.getVersion(), snapshot.getNodes(),
+                snapshot.getRules(), snapshot.getAnswers(), snapshot.getFactNames().length,
+                snapshot.estimatedBytes()));
+    }
+}
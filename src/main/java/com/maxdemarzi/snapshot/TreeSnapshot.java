@@ -0,0 +1,454 @@
+package com.maxdemarzi.snapshot;
+
+import com.maxdemarzi.model.TreeModel;
+import com.maxdemarzi.results.DecisionResult;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.schema.RelationshipTypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A Tree loaded into flat arrays so it can be evaluated without touching the graph.
+ *
+ * Nodes are numbered as in the {@link TreeModel}. The outgoing relationships of node <var>n</var> are grouped by
+ * type into outcomes <code>outcomeOffsets[n]</code> to <code>outcomeOffsets[n + 1]</code>, and the targets of
+ * outcome <var>o</var> are <code>targets[targetOffsets[o]]</code> to <code>targets[targetOffsets[o + 1]]</code>.
+ * Expression rules always have IS_TRUE as their first outcome and IS_FALSE as their second.
+ * Every fact name used by a rule is interned to a slot, so facts are read out of the map once per evaluation
+ * and rule parameters are array reads after that. The arrays are package-private for the {@link ColumnarBatch}.
+ */
+public class TreeSnapshot {
+
+    static final byte ANSWER = 0;
+    static final byte BRANCH = 1;
+    static final byte EXPRESSION = 2;
+    static final byte SCRIPT = 3;
+    static final byte DEAD_END = 4;
+
+    private final String treeId;
+    private final long version;
+
+    final byte[] kinds;
+    final String[] answers;
+    final String[] ruleIds;
+    final CompiledRule[] rules;
+    final int[][] parameterSlots;
+
+    final int[] outcomeOffsets;
+    final String[] outcomes;
+    final int[] targetOffsets;
+    final int[] targets;
+
+    final String[] factNames;
+
+    private TreeSnapshot(String treeId, long version, byte[] kinds, String[] answers, String[] ruleIds,
+                         CompiledRule[] rules, int[][] parameterSlots, int[] outcomeOffsets, String[] outcomes,
+                         int[] targetOffsets, int[] targets, String[] factNames) {
+        this.treeId = treeId;
+        this.version = version;
+        this.kinds = kinds;
+        this.answers = answers;
+        this.ruleIds = ruleIds;
+        this.rules = rules;
+        this.parameterSlots = parameterSlots;
+        this.outcomeOffsets = outcomeOffsets;
+        this.outcomes = outcomes;
+        this.targetOffsets = targetOffsets;
+        this.targets = targets;
+        this.factNames = factNames;
+    }
+
+    public static TreeSnapshot of(TreeModel model) {
+        int size = model.size();
+        byte[] kinds = new byte[size];
+        String[] answers = new String[size];
+        String[] ruleIds = new String[size];
+        CompiledRule[] rules = new CompiledRule[size];
+        int[][] parameterSlots = new int[size][];
+        Map<String, Integer> slots = new LinkedHashMap<>();
+
+        int[] outcomeOffsets = new int[size + 1];
+        List<String> outcomes = new ArrayList<>();
+        List<int[]> outcomeTargets = new ArrayList<>();
+
+        for (TreeModel.Element element : model.getElements()) {
+            int n = element.index;
+            outcomeOffsets[n] = outcomes.size();
+            switch (element.kind) {
+                case ANSWER:
+                    kinds[n] = ANSWER;
+                    answers[n] = element.name;
+                    break;
+                case BRANCH:
+                    kinds[n] = BRANCH;
+                    outcomes.add(RelationshipTypes.HAS.name());
+                    outcomeTargets.add(element.targets(RelationshipTypes.HAS.name()));
+                    break;
+                case EXPRESSION:
+                case SCRIPT:
+                    kinds[n] = element.kind == TreeModel.Kind.EXPRESSION ? EXPRESSION : SCRIPT;
+                    ruleIds[n] = element.elementId;
+                    rules[n] = element.compile();
+                    if (rules[n] != null) {
+                        String[] names = rules[n].getParameterNames();
+                        parameterSlots[n] = new int[names.length];
+                        for (int j = 0; j < names.length; j++) {
+                            parameterSlots[n][j] = slots.computeIfAbsent(names[j], k -> slots.size());
+                        }
+                    }
+                    if (element.kind == TreeModel.Kind.EXPRESSION) {
+                        outcomes.add(RelationshipTypes.IS_TRUE.name());
+                        outcomeTargets.add(element.targets(RelationshipTypes.IS_TRUE.name()));
+                        outcomes.add(RelationshipTypes.IS_FALSE.name());
+                        outcomeTargets.add(element.targets(RelationshipTypes.IS_FALSE.name()));
+                    } else {
+                        element.targets.forEach((type, found) -> {
+                            outcomes.add(type);
+                            outcomeTargets.add(found);
+                        });
+                    }
+                    break;
+                default:
+                    kinds[n] = DEAD_END;
+                    break;
+            }
+        }
+        outcomeOffsets[size] = outcomes.size();
+
+        int[] targetOffsets = new int[outcomes.size() + 1];
+        int total = 0;
+        for (int o = 0; o < outcomeTargets.size(); o++) {
+            targetOffsets[o] = total;
+            total += outcomeTargets.get(o).length;
+        }
+        targetOffsets[outcomes.size()] = total;
+        int[] targets = new int[total];
+        for (int o = 0; o < outcomeTargets.size(); o++) {
+            int[] found = outcomeTargets.get(o);
+            System.arraycopy(found, 0, targets, targetOffsets[o], found.length);
+        }
+
+        return new TreeSnapshot(model.getTreeId(), model.getVersion(), kinds, answers, ruleIds, rules, parameterSlots,
+            outcomeOffsets, outcomes.toArray(new String[0]), targetOffsets, targets,
+            slots.keySet().toArray(new String[0]));
+    }
+
+
+    /**
+     * @return the facts in slot order, the only place facts are looked up by name
+     */
+    public Object[] slots(Map<String, ?> facts) {
+        Object[] values = new Object[factNames.length];
+        for (int s = 0; s < factNames.length; s++) {
+            values[s] = facts.get(factNames[s]);
+        }
+        return values;
+    }
+
+    public List<DecisionResult> evaluate(Map<String, ?> facts) {
+        return evaluate(slots(facts), false);
+    }
+
+    public List<DecisionResult> evaluate(Map<String, ?> facts, boolean firstMatch) {
+        return evaluate(slots(facts), firstMatch);
+    }
+
+    public List<DecisionResult> evaluate(Object[] values) {
+        return evaluate(values, false);
+    }
+
+    /**
+     * @return a result for every Answer reached with the given facts in slot order, visiting each node once,
+     * or only the first Answer reached in priority order when <var>firstMatch</var> is set
+     */
+    public List<DecisionResult> evaluate(Object[] values, boolean firstMatch) {
+        List<DecisionResult> results = new ArrayList<>();
+        visit(0, values, new boolean[kinds.length], new ArrayList<>(), results, firstMatch, null);
+        return results;
+    }
+
+    /**
+     * Evaluates like {@link #evaluate(Map, boolean)}, taking the outcome of rules the memo already knows for these
+     * facts instead of evaluating them again, and adding the outcome of those it doesn't.
+     */
+    public List<DecisionResult> evaluate(Map<String, ?> facts, boolean firstMatch, RuleMemo memo) {
+        List<DecisionResult> results = new ArrayList<>();
+        visit(0, slots(facts), new boolean[kinds.length], new ArrayList<>(), results, firstMatch, memo);
+        return results;
+    }
+
+    private void visit(int n, Object[] values, boolean[] visited, ArrayList<String> path, List<DecisionResult> results,
+                       boolean firstMatch, RuleMemo memo) {
+        if (visited[n] || (firstMatch && !results.isEmpty())) {
+            return;
+        }
+        visited[n] = true;
+
+        int outcome;
+        switch (kinds[n]) {
+            case ANSWER:
+                results.add(new DecisionResult(answers[n], new ArrayList<>(path)));
+                return;
+            case BRANCH:
+                visitAll(outcomeOffsets[n], values, visited, path, results, firstMatch, memo);
+                return;
+            case EXPRESSION:
+            case SCRIPT:
+                outcome = memo == null ? choose(n, values) : choose(n, values, memo);
+                if (outcome < 0) {
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+
+        path.add(ruleIds[n]);
+        visitAll(outcome, values, visited, path, results, firstMatch, memo);
+        path.remove(path.size() - 1);
+    }
+
+    /**
+     * @return the outcome the rule at <var>n</var> takes, or -1 if it can't be evaluated or has no such relationship
+     */
+    int choose(int n, Object[] values) {
+        CompiledRule rule = rules[n];
+        if (rule == null) {
+            return -1;
+        }
+        int[] slots = parameterSlots[n];
+        Object[] arguments = new Object[slots.length];
+        for (int j = 0; j < slots.length; j++) {
+            arguments[j] = values[slots[j]];
+        }
+        try {
+            if (kinds[n] == EXPRESSION) {
+                // IS_TRUE first, IS_FALSE second
+                return rule.isTrue(arguments) ? outcomeOffsets[n] : outcomeOffsets[n] + 1;
+            }
+            String chosen = rule.choosePath(arguments);
+            for (int o = outcomeOffsets[n]; o < outcomeOffsets[n + 1]; o++) {
+                if (outcomes[o].equals(chosen)) {
+                    return o;
+                }
+            }
+            return -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the outcome the rule at <var>n</var> takes like {@link #choose(int, Object[])}, as remembered by the memo
+     */
+    private int choose(int n, Object[] values, RuleMemo memo) {
+        CompiledRule rule = rules[n];
+        if (rule == null) {
+            return -1;
+        }
+        Object decided = memo.decide(rule, () -> {
+            int[] slots = parameterSlots[n];
+            String[] names = rule.getParameterNames();
+            Class<?>[] types = rule.getParameterTypes();
+            Object[] arguments = new Object[slots.length];
+            for (int j = 0; j < slots.length; j++) {
+                arguments[j] = memo.argument(names[j], types[j], values[slots[j]]);
+            }
+            try {
+                return kinds[n] == EXPRESSION ? rule.isTrue(arguments) : rule.choosePath(arguments);
+            } catch (Exception e) {
+                return null;
+            }
+        });
+        if (decided == null) {
+            return -1;
+        }
+        if (kinds[n] == EXPRESSION) {
+            return (Boolean) decided ? outcomeOffsets[n] : outcomeOffsets[n] + 1;
+        }
+        for (int o = outcomeOffsets[n]; o < outcomeOffsets[n + 1]; o++) {
+            if (outcomes[o].equals(decided)) {
+                return o;
+            }
+        }
+        return -1;
+    }
+
+    private void visitAll(int outcome, Object[] values, boolean[] visited, ArrayList<String> path,
+                          List<DecisionResult> results, boolean firstMatch, RuleMemo memo) {
+        for (int t = targetOffsets[outcome]; t < targetOffsets[outcome + 1]; t++) {
+            visit(targets[t], values, visited, path, results, firstMatch, memo);
+        }
+    }
+
+    /**
+     * Evaluates the targets of every HAS relationship as their own task on the given pool, each with its own visited
+     * nodes and path, and merges what they reach in priority order. An Answer reached by more than one branch is
+     * only returned once, for the first branch that reached it. When branches don't share nodes the results are the
+     * same as those of {@link #evaluate(Object[], boolean)}, but later branches are not skipped under
+     * <var>firstMatch</var>, they run at the same time as the first one.
+     *
+     * @return a result for every Answer reached with the given facts in slot order
+     */
+    public List<DecisionResult> evaluate(Object[] values, boolean firstMatch, ForkJoinPool pool) {
+        List<Reached> reached = pool.invoke(new Branch(0, values, new boolean[kinds.length], new ArrayList<>()));
+        List<DecisionResult> results = new ArrayList<>();
+        boolean[] answered = new boolean[kinds.length];
+        for (Reached found : reached) {
+            if (!answered[found.answer]) {
+                answered[found.answer] = true;
+                results.add(found.result);
+                if (firstMatch) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private static class Reached {
+        private final int answer;
+        private final DecisionResult result;
+
+        Reached(int answer, DecisionResult result) {
+            this.answer = answer;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Walks like {@link #visit} from node <var>n</var>, forking a task for each target of a HAS relationship.
+     */
+    private class Branch extends RecursiveTask<List<Reached>> {
+        private final int start;
+        private final Object[] values;
+        private final boolean[] visited;
+        private final ArrayList<String> path;
+        private final List<Reached> reached = new ArrayList<>();
+
+        Branch(int start, Object[] values, boolean[] visited, ArrayList<String> path) {
+            this.start = start;
+            this.values = values;
+            this.visited = visited;
+            this.path = path;
+        }
+
+        @Override
+        protected List<Reached> compute() {
+            visit(start);
+            return reached;
+        }
+
+        private void visit(int n) {
+            if (visited[n]) {
+                return;
+            }
+            visited[n] = true;
+
+            int outcome;
+            switch (kinds[n]) {
+                case ANSWER:
+                    reached.add(new Reached(n, new DecisionResult(answers[n], new ArrayList<>(path))));
+                    return;
+                case BRANCH:
+                    fork(outcomeOffsets[n]);
+                    return;
+                case EXPRESSION:
+                case SCRIPT:
+                    outcome = choose(n, values);
+                    if (outcome < 0) {
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+
+            path.add(ruleIds[n]);
+            for (int t = targetOffsets[outcome]; t < targetOffsets[outcome + 1]; t++) {
+                visit(targets[t]);
+            }
+            path.remove(path.size() - 1);
+        }
+
+        private void fork(int outcome) {
+            int from = targetOffsets[outcome];
+            int to = targetOffsets[outcome + 1];
+            if (to - from == 1) {
+                visit(targets[from]);
+                return;
+            }
+            List<Branch> branches = new ArrayList<>(to - from);
+            for (int t = from; t < to; t++) {
+                branches.add(new Branch(targets[t], values, visited.clone(), new ArrayList<>(path)));
+            }
+            // Joined in order, so the results don't depend on which branch finished first.
+            for (Branch branch : invokeAll(branches)) {
+                reached.addAll(branch.join());
+            }
+        }
+    }
+
+    /**
+     * @return a rough estimate of the heap used by this snapshot, not counting the classes of its compiled rules
+     */
+    public long estimatedBytes() {
+        // The snapshot object itself
+        long bytes = 72;
+        bytes += array(kinds.length, 1);
+        bytes += strings(answers) + strings(ruleIds) + strings(outcomes) + strings(factNames);
+        bytes += array(rules.length, 4);
+        bytes += array(parameterSlots.length, 4);
+        for (int[] slots : parameterSlots) {
+            if (slots != null) {
+                bytes += array(slots.length, 4);
+            }
+        }
+        bytes += array(outcomeOffsets.length, 4) + array(targetOffsets.length, 4) + array(targets.length, 4);
+        return bytes;
+    }
+
+    private static long array(int length, int width) {
+        return 16 + (long) length * width;
+    }
+
+    private static long strings(String[] strings) {
+        long bytes = array(strings.length, 4);
+        for (String s : strings) {
+            if (s != null) {
+                bytes += 24 + array(s.length(), 1);
+            }
+        }
+        return bytes;
+    }
+
+    public String getTreeId() {
+        return treeId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodes() {
+        return kinds.length;
+    }
+
+    public long getRules() {
+        return Arrays.stream(ruleIds).filter(id -> id != null).count();
+    }
+
+    public long getAnswers() {
+        return Arrays.stream(answers).filter(id -> id != null).count();
+    }
+
+    public String[] getFactNames() {
+        return factNames;
+    }
+}
@@ -1,26 +1,62 @@
 package com.maxdemarzi;
 
+import com.maxdemarzi.audit.AuditLog;
+import com.maxdemarzi.binary.Export;
+import com.maxdemarzi.binary.MappedTree;
+import com.maxdemarzi.client.DecisionTreeClient;
+import com.maxdemarzi.extension.WarmUps;
+import com.maxdemarzi.generate.Generate;
+import com.maxdemarzi.imports.Import;
+import com.maxdemarzi.metrics.Metrics;
+import com.maxdemarzi.metrics.MetricsRegistry;
+import com.maxdemarzi.metrics.RuleMetrics;
+import com.maxdemarzi.rules.CompiledRule;
+import com.maxdemarzi.rules.RuleCache;
+import com.maxdemarzi.rules.Rules;
+import com.maxdemarzi.snapshot.Snapshots;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.configuration.connectors.BoltConnector;
+import org.neo4j.configuration.helpers.SocketAddress;
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
 import org.neo4j.exceptions.KernelException;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.QueryExecutionException;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.api.procedure.GlobalProcedures;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
 
 
@@ -40,6 +76,7 @@ public class EmbeddedNeo4jTest {
     private DatabaseManagementService managementService;
     private GraphDatabaseService graphDb;
     private static final Path databaseDirectory = Path.of( "target/neo4j-test-db" );
+    private static final int BOLT_PORT = 7697;
 
     private static final String MODEL_STATEMENT =
         "CREATE (tree:Tree { id: 'bar entrance' })" +
@@ -65,6 +102,33 @@ public class EmbeddedNeo4jTest {
     private static final String QUERY3 =
             "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {gender:'female', age:'17'}) yield path return path";
 
+    private static final String FUNERAL_MODEL_STATEMENT =
+        "CREATE (tree:Tree { id: 'funeral' })" +
+                "CREATE (good_man_rule:Rule { name: 'Was Lil Jon a good man?', parameter_names: 'answer_1', parameter_types:'String', script:'switch (answer_1) { case \"yeah\": return \"OPTION_1\"; case \"what\": return \"OPTION_2\"; case \"okay\": return \"OPTION_3\"; default: return \"UNKNOWN\"; }' })" +
+                "CREATE (good_man_two_rule:Rule { name: 'I said, was he a good man?', parameter_names: 'answer_2', parameter_types:'String', script:'switch (answer_2) { case \"yeah\": return \"OPTION_1\"; case \"what\": return \"OPTION_2\"; case \"okay\": return \"OPTION_3\"; default: return \"UNKNOWN\"; }' })" +
+                "CREATE (answer_correct:Answer { id: 'correct'})" +
+                "CREATE (answer_incorrect:Answer { id: 'incorrect'})" +
+                "CREATE (answer_unknown:Answer { id: 'unknown'})" +
+                "CREATE (tree)-[:HAS]->(good_man_rule)" +
+                "CREATE (good_man_rule)-[:OPTION_1]->(answer_incorrect)" +
+                "CREATE (good_man_rule)-[:OPTION_2]->(good_man_two_rule)" +
+                "CREATE (good_man_rule)-[:UNKNOWN]->(answer_unknown)" +
+                "CREATE (good_man_two_rule)-[:OPTION_1]->(answer_correct)" +
+                "CREATE (good_man_two_rule)-[:UNKNOWN]->(answer_unknown)";
+
+    private static final String COMPILED_QUERY =
+            "CALL com.maxdemarzi.traverse.decision_tree_compiled($tree, $facts) yield answer, rules return answer, size(rules) as rules";
+
+    private static final String BATCH_QUERY =
+            "CALL com.maxdemarzi.traverse.decision_tree_batch($tree, $facts) yield index, answers return index, answers";
+
+    private static final String COLUMNAR_QUERY =
+            "CALL com.maxdemarzi.traverse.decision_tree_batch_columnar($tree, $facts, $firstMatch) yield index, answers return index, answers";
+
+    private static final String GENERATE_QUERY =
+            "CALL com.maxdemarzi.generate.tree($tree, 3, 3, 0.5, $seed, 2, 5) yield answers, rules, relationships, transactions " +
+            "return answers, rules, relationships, transactions";
+
 //    private static final String QUERY4 =
 //            "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {dress_code:'white'}) yield path return path";
 
@@ -72,6 +136,8 @@ public class EmbeddedNeo4jTest {
     public void setup() throws IOException, KernelException {
         log.info("startup - creating DB connection...");
         FileUtils.deleteDirectory(databaseDirectory.toFile());
+        // Keeps the warm-up from filling the caches while the tests count hits and misses, see testWarmUp
+        System.setProperty("com.maxdemarzi.warmup.enabled", "false");
         managementService = new DatabaseManagementServiceBuilder( databaseDirectory ).build();
         graphDb = managementService.database( DEFAULT_DATABASE_NAME );
         log.info("startup - creating DB connection...DONE");
@@ -82,6 +148,12 @@ public class EmbeddedNeo4jTest {
                 .getDependencyResolver()
                 .resolveDependency(org.neo4j.kernel.api.procedure.GlobalProcedures.class);
         gp.registerProcedure(DecisionTreeTraverser.class);
+        gp.registerProcedure(Snapshots.class);
+        gp.registerProcedure(Generate.class);
+        gp.registerProcedure(Metrics.class);
+        gp.registerProcedure(Import.class);
+        gp.registerProcedure(Export.class);
+        gp.registerProcedure(Rules.class);
         log.info("startup - registering procedure...DONE");
 
         log.info("startup - cleaning db and adding decision model...");
@@ -151,6 +223,964 @@ public class EmbeddedNeo4jTest {
         log.info("testFemaleUnder18...DONE" );
     }
 
+    @Test
+    void testChangedRuleIsRecompiled() {
+        log.info("testChangedRuleIsRecompiled..." );
+        graphDb.executeTransactionally(QUERY1);
+        graphDb.executeTransactionally("MATCH (r:Rule {expression: 'age >= 21'}) SET r.expression = 'age >= 20'");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            Result result = tx.execute(QUERY1);
+            Optional<Map<String, Object>> x = result.stream().findFirst();
+            assert(x.isPresent());
+            String joined = x.stream()
+                                    .map(Object::toString)
+                                    .collect(Collectors.joining(" "));
+            log.info("value: {}", joined );
+            assert(joined.endsWith("[IS_TRUE,1]->(3)}"));
+        }
+        log.info("testChangedRuleIsRecompiled...DONE" );
+    }
+
+    @Test
+    void testCompiledTree() {
+        log.info("testCompiledTree..." );
+        assertEquals(List.of(Map.of("answer", "no", "rules", 2L)),
+                compiled("bar entrance", Map.of("gender", "male", "age", "20")));
+        assertEquals(List.of(Map.of("answer", "yes", "rules", 2L)),
+                compiled("bar entrance", Map.of("gender", "female", "age", "18")));
+        assertEquals(List.of(Map.of("answer", "yes", "rules", 1L)),
+                compiled("bar entrance", Map.of("gender", "male", "age", "23")));
+
+        // Changing the tree recompiles it
+        graphDb.executeTransactionally("MATCH (r:Rule {expression: 'age >= 21'}) SET r.expression = 'age >= 20'");
+        assertEquals(List.of(Map.of("answer", "yes", "rules", 1L)),
+                compiled("bar entrance", Map.of("gender", "male", "age", "20")));
+        log.info("testCompiledTree...DONE" );
+    }
+
+    @Test
+    void testCompiledScriptTree() {
+        log.info("testCompiledScriptTree..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        assertEquals(List.of(Map.of("answer", "incorrect", "rules", 1L)),
+                compiled("funeral", Map.of("answer_1", "yeah")));
+        assertEquals(List.of(Map.of("answer", "correct", "rules", 2L)),
+                compiled("funeral", Map.of("answer_1", "what", "answer_2", "yeah")));
+        assertEquals(List.of(Map.of("answer", "unknown", "rules", 2L)),
+                compiled("funeral", Map.of("answer_1", "what", "answer_2", "")));
+        log.info("testCompiledScriptTree...DONE" );
+    }
+
+    @Test
+    void testBatch() {
+        log.info("testBatch..." );
+        List<Map<String, Object>> facts = List.of(
+                Map.of("gender", "male", "age", "20"),
+                Map.of("gender", "female", "age", "18"),
+                Map.of("gender", "female", "age", "17"),
+                Map.of("gender", "male"));
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            List<Map<String, Object>> rows = tx.execute(BATCH_QUERY, Map.of("tree", "bar entrance", "facts", facts))
+                    .stream().collect(Collectors.toList());
+            assertEquals(List.of(
+                    Map.of("index", 0L, "answers", List.of("no")),
+                    Map.of("index", 1L, "answers", List.of("yes")),
+                    Map.of("index", 2L, "answers", List.of("no")),
+                    Map.of("index", 3L, "answers", List.of())), rows);
+
+            // Same rows in the same order, however many workers split them up
+            for (long workers = 1; workers <= 5; workers++) {
+                assertEquals(rows, tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_batch_parallel($tree, $facts, $workers) yield index, answers return index, answers",
+                        Map.of("tree", "bar entrance", "facts", facts, "workers", workers))
+                        .stream().collect(Collectors.toList()));
+            }
+            assertEquals(rows, tx.execute(COLUMNAR_QUERY, Map.of("tree", "bar entrance", "facts", facts, "firstMatch", false))
+                    .stream().collect(Collectors.toList()));
+        }
+        log.info("testBatch...DONE" );
+    }
+
+    @Test
+    void testBatchParallel() {
+        log.info("testBatchParallel..." );
+        graphDb.executeTransactionally(GENERATE_QUERY, Map.of("tree", "generated", "seed", 5L), result -> result.next());
+        Random random = new Random(5);
+        List<Map<String, Object>> facts = new ArrayList<>();
+        for (int row = 0; row < 200; row++) {
+            Map<String, Object> fact = new HashMap<>();
+            for (int f = 0; f < 8; f++) {
+                fact.put("fact_" + f, String.valueOf(random.nextInt(100)));
+            }
+            facts.add(fact);
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            List<Map<String, Object>> expected = tx.execute(BATCH_QUERY, Map.of("tree", "generated", "facts", facts))
+                    .stream().collect(Collectors.toList());
+            assertEquals(200, expected.size());
+            for (long workers : new long[]{ 1, 7 }) {
+                assertEquals(expected, tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_batch_parallel($tree, $facts, $workers) yield index, answers return index, answers",
+                        Map.of("tree", "generated", "facts", facts, "workers", workers))
+                        .stream().collect(Collectors.toList()));
+            }
+        }
+        log.info("testBatchParallel...DONE" );
+    }
+
+    @Test
+    void testLimitAndFirstOnly() {
+        log.info("testLimitAndFirstOnly..." );
+        // A second root, so a male over 21 reaches both Answers
+        graphDb.executeTransactionally("MATCH (t:Tree), (r:Rule {parameter_names: 'age,gender'}) CREATE (t)-[:HAS]->(r)");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(2, tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {gender:'male', age:'23'})").stream().count());
+            assertEquals(1, tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {gender:'male', age:'23'}, 1)").stream().count());
+            assertEquals(1, tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {gender:'male', age:'23'}, -1, true)").stream().count());
+            // Unknown trees have no paths
+            assertEquals(0, tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('missing', {gender:'male', age:'23'})").stream().count());
+            assertEquals(0, tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_two('missing', {gender:'male', age:'23'})").stream().count());
+        }
+        log.info("testLimitAndFirstOnly...DONE" );
+    }
+
+    @Test
+    void testFirstMatchFollowsPriority() {
+        log.info("testFirstMatchFollowsPriority..." );
+        // A second root that says no to a male over 21, tried before the first one
+        graphDb.executeTransactionally("MATCH (t:Tree)-[has:HAS]->() SET has.priority = 2");
+        graphDb.executeTransactionally(
+                "MATCH (t:Tree), (r:Rule {parameter_names: 'age,gender'}) CREATE (t)-[:HAS {priority: 1}]->(r)");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (String procedure : List.of("decision_tree_compiled", "decision_tree_snapshot", "decision_tree_kernel",
+                    "decision_tree_parallel")) {
+                assertEquals(List.of("no", "yes"), answers(tx.execute("CALL com.maxdemarzi.traverse." + procedure +
+                        "('bar entrance', {gender:'male', age:'23'})")).stream().sorted().collect(Collectors.toList()));
+                assertEquals(List.of("no"), answers(tx.execute("CALL com.maxdemarzi.traverse." + procedure +
+                        "('bar entrance', {gender:'male', age:'23'}, true)")));
+            }
+            org.neo4j.graphdb.Path path = (org.neo4j.graphdb.Path) tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('bar entrance', {gender:'male', age:'23'}, -1, true)")
+                    .next().get("path");
+            assertEquals("no", path.endNode().getProperty("id"));
+        }
+        log.info("testFirstMatchFollowsPriority...DONE" );
+    }
+
+    @Test
+    void testDecisionCache() {
+        log.info("testDecisionCache..." );
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Only age and gender are read, the name doesn't matter
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20, name:'joe'})")));
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20, name:'jim'})")));
+            assertEquals(List.of("yes"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:21, name:'jim'})")));
+        }
+        Map<String, Object> decisions = metric(graphDb.executeTransactionally("CALL com.maxdemarzi.metrics()", Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "decisions");
+        assertEquals(1L, ((Map<?, ?>) decisions.get("details")).get("hits"));
+        assertEquals(2L, ((Map<?, ?>) decisions.get("details")).get("misses"));
+        // The time spent evaluating the two misses, there is nothing to compile
+        assert((Double) decisions.get("max") > 0);
+
+        // A change to another tree keeps the entries of this one
+        graphDb.executeTransactionally("CREATE (:Tree { id: 'other' })-[:HAS]->(:Answer { id: 'always' })");
+        graphDb.executeTransactionally("MATCH (:Tree { id: 'other' })-[:HAS]->(answer:Answer) SET answer.id = 'never'");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20, name:'joe'})")));
+        }
+        decisions = metric(graphDb.executeTransactionally("CALL com.maxdemarzi.metrics()", Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "decisions");
+        assertEquals(2L, ((Map<?, ?>) decisions.get("details")).get("hits"));
+
+        // A changed tree is evaluated again
+        graphDb.executeTransactionally("MATCH (r:Rule {expression: 'age >= 21'}) SET r.expression = 'age >= 20'");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("yes"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20, name:'joe'})")));
+        }
+        log.info("testDecisionCache...DONE" );
+    }
+
+    @Test
+    void testCompact() {
+        log.info("testCompact..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            Map<String, Object> result = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_compact('bar entrance', {gender:'male', age:20})").next();
+            assertEquals("no", result.get("answer"));
+            assertEquals(2, ((List<?>) result.get("rules")).size());
+            assertEquals(List.of("IS_FALSE", "IS_FALSE"), result.get("outcomes"));
+
+            result = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_two_compact('funeral', {answer_1:'what', answer_2:'yeah'})").next();
+            assertEquals("correct", result.get("answer"));
+            assertEquals(List.of("Was Lil Jon a good man?", "I said, was he a good man?"), result.get("names"));
+            assertEquals(List.of("OPTION_2", "OPTION_1"), result.get("outcomes"));
+        }
+        log.info("testCompact...DONE" );
+    }
+
+    @Test
+    void testTypedFacts() {
+        log.info("testTypedFacts..." );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            List<Object> answers = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_typed('bar entrance', {gender:'female', age:18}) yield path return last(nodes(path)).id as answer")
+                    .stream().map(row -> row.get("answer")).collect(Collectors.toList());
+            assertEquals(List.of("yes"), answers);
+        }
+        log.info("testTypedFacts...DONE" );
+    }
+
+    @Test
+    void testSnapshot() {
+        log.info("testSnapshot..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_snapshot('bar entrance', {gender:'male', age:20})")));
+            assertEquals(List.of("yes"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_snapshot('bar entrance', {gender:'female', age:'18'})")));
+            assertEquals(List.of("correct"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_snapshot('funeral', {answer_1:'what', answer_2:'yeah'})")));
+            assertEquals(List.of("unknown"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_snapshot('funeral', {answer_1:'nope'})")));
+
+            Map<String, Object> snapshot = tx.execute(
+                    "CALL com.maxdemarzi.snapshot.list() yield tree, nodes, rules, answers, facts, bytes WHERE tree = 'bar entrance' RETURN *")
+                    .next();
+            assertEquals(5L, snapshot.get("nodes"));
+            assertEquals(2L, snapshot.get("rules"));
+            assertEquals(2L, snapshot.get("answers"));
+            assertEquals(2L, snapshot.get("facts"));
+            assert((Long) snapshot.get("bytes") > 0);
+        }
+        log.info("testSnapshot...DONE" );
+    }
+
+    @Test
+    void testParallel() {
+        log.info("testParallel..." );
+        graphDb.executeTransactionally("CREATE (tree:Tree { id: 'wide' }) CREATE (none:Answer { id: 'none' }) " +
+                "WITH tree, none UNWIND range(1, 8) AS k " +
+                "CREATE (tree)-[:HAS {priority: k}]->(rule:Rule { parameter_names: 'x', parameter_types: 'int', expression: 'x % ' + k + ' == 0' }) " +
+                "CREATE (rule)-[:IS_TRUE]->(:Answer { id: 'divisible by ' + k }) " +
+                "CREATE (rule)-[:IS_FALSE]->(none)");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (long x : new long[]{ 6, 7, 24 }) {
+                Map<String, Object> facts = Map.of("facts", Map.of("x", x));
+                List<Object> expected = answers(tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_snapshot('wide', $facts)", facts));
+                assertEquals(expected, answers(tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_parallel('wide', $facts)", facts)));
+            }
+            assertEquals(List.of("divisible by 1", "divisible by 2", "divisible by 3", "none", "divisible by 6"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_parallel('wide', {x: 6})")));
+        }
+        log.info("testParallel...DONE" );
+    }
+
+    @Test
+    void testKernelWalker() {
+        log.info("testKernelWalker..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20})")));
+            assertEquals(List.of("yes"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'female', age:'18'})")));
+            assertEquals(List.of("correct"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('funeral', {answer_1:'what', answer_2:'yeah'})")));
+            assertEquals(List.of("unknown"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('funeral', {answer_1:'nope'})")));
+
+            Map<String, Object> result = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:'20'})").next();
+            assertEquals(2, ((List<?>) result.get("rules")).size());
+        }
+        log.info("testKernelWalker...DONE" );
+    }
+
+    @Test
+    void testGenerateTree() {
+        log.info("testGenerateTree..." );
+        Map<String, Object> generated = graphDb.executeTransactionally(GENERATE_QUERY,
+                Map.of("tree", "generated", "seed", 7L), result -> result.next());
+        // 1 + 2 + 4 rules, or more when scripts with 3 outcomes were drawn, in batches of 5
+        assertEquals(3L, generated.get("answers"));
+        assert((Long) generated.get("rules") >= 7);
+        assert((Long) generated.get("transactions") > 1);
+
+        Map<String, Object> again = graphDb.executeTransactionally(GENERATE_QUERY,
+                Map.of("tree", "generated again", "seed", 7L), result -> result.next());
+        assertEquals(generated.get("rules"), again.get("rules"));
+        assertEquals(generated.get("relationships"), again.get("relationships"));
+
+        Map<String, Object> facts = Map.of("fact_0", 10, "fact_1", 20, "fact_2", 30, "fact_3", 40,
+                "fact_4", 50, "fact_5", 60, "fact_6", 70, "fact_7", 80);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            List<Object> answers = answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('generated', $facts)", Map.of("facts", facts)));
+            assertEquals(1, answers.size());
+            assertEquals(answers, answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('generated again', $facts)", Map.of("facts", facts))));
+            // The traversal procedures follow both the expressions and the scripts mixed in the tree
+            assertEquals(answers, answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree('generated', $facts) yield path return last(nodes(path)).id AS answer", Map.of("facts", facts))));
+            assertEquals(answers, answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_two('generated', $facts) yield path return last(nodes(path)).id AS answer", Map.of("facts", facts))));
+        }
+        log.info("testGenerateTree...DONE" );
+    }
+
+    @Test
+    void testImport() throws IOException {
+        log.info("testImport..." );
+        Path json = databaseDirectory.resolveSibling("import-test.json");
+        String url = "file:///import-test.json";
+        // Off until it is enabled
+        assertThrows(QueryExecutionException.class, () -> graphDb.executeTransactionally(
+                "CALL com.maxdemarzi.import.trees($url)", Map.of("url", url), result -> result.stream().count()));
+        System.setProperty("com.maxdemarzi.import.enabled", "true");
+        System.setProperty("com.maxdemarzi.import.directory", json.getParent().toString());
+        try {
+            Files.writeString(json, "{ \"trees\": [ { \"id\": \"imported\" } ]," +
+                    " \"rules\": [" +
+                    "  { \"key\": \"over 21\", \"name\": \"Over 21\", \"parameter_names\": \"age\", \"parameter_types\": \"int\", \"expression\": \"age >= 21\" }," +
+                    "  { \"key\": \"female\", \"parameter_names\": \"age,gender\", \"parameter_types\": \"int,String\", \"expression\": \"(age >= 18) && gender.equals(\\\"female\\\")\" } ]," +
+                    " \"answers\": [ { \"id\": \"yes\" }, { \"id\": \"no\" } ]," +
+                    " \"edges\": [" +
+                    "  { \"from\": \"imported\", \"to\": \"over 21\", \"type\": \"HAS\" }," +
+                    "  { \"from\": \"over 21\", \"to\": \"yes\", \"type\": \"IS_TRUE\" }," +
+                    "  { \"from\": \"over 21\", \"to\": \"female\", \"type\": \"IS_FALSE\" }," +
+                    "  { \"from\": \"female\", \"to\": \"yes\", \"type\": \"IS_TRUE\" }," +
+                    "  { \"from\": \"female\", \"to\": \"no\", \"type\": \"IS_FALSE\" } ] }");
+            Map<String, Object> imported = graphDb.executeTransactionally("CALL com.maxdemarzi.import.trees($url, 3)",
+                    Map.of("url", url), result -> result.next());
+            assertEquals(List.of("imported"), imported.get("trees"));
+            assertEquals(2L, imported.get("rules"));
+            assertEquals(5L, imported.get("relationships"));
+            assertEquals(4L, imported.get("transactions"));
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                assertEquals(List.of("no"), answers(tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_kernel('imported', {gender:'male', age:20})")));
+                assertEquals(List.of("yes"), answers(tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_kernel('imported', {gender:'female', age:19})")));
+            }
+
+            // Rules with unknown parameter types are refused
+            Files.writeString(json, "{ \"rules\": [ { \"key\": \"bad\", \"parameter_names\": \"age\", \"parameter_types\": \"integer\", \"expression\": \"age > 1\" } ] }");
+            try {
+                graphDb.executeTransactionally("CALL com.maxdemarzi.import.trees($url)", Map.of("url", url),
+                        result -> result.stream().count());
+                throw new AssertionError("expected the import to fail");
+            } catch (QueryExecutionException e) {
+                assert(e.getMessage().contains("integer"));
+            }
+
+            // Files outside of the import directory and other schemes are refused, and what could not be parsed isn't echoed
+            for (String refused : List.of("file:///../../pom.xml", "jar:file:///import-test.json!/", "http://localhost:1/trees.json")) {
+                QueryExecutionException e = assertThrows(QueryExecutionException.class, () -> graphDb.executeTransactionally(
+                        "CALL com.maxdemarzi.import.trees($url)", Map.of("url", refused), result -> result.stream().count()));
+                assert(e.getMessage().contains("import directory") || e.getMessage().contains("not allowed"));
+            }
+            Files.writeString(json, "secret: not json");
+            QueryExecutionException parse = assertThrows(QueryExecutionException.class, () -> graphDb.executeTransactionally(
+                    "CALL com.maxdemarzi.import.trees($url)", Map.of("url", url), result -> result.stream().count()));
+            assert(!parse.getMessage().contains("secret"));
+        } finally {
+            System.clearProperty("com.maxdemarzi.import.enabled");
+            System.clearProperty("com.maxdemarzi.import.directory");
+        }
+        log.info("testImport...DONE" );
+    }
+
+    @Test
+    void testExport() throws IOException {
+        log.info("testExport..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        Path file = databaseDirectory.resolveSibling("funeral.tree");
+        // Off until it is enabled, and then only into the export directory
+        assertThrows(QueryExecutionException.class, () -> graphDb.executeTransactionally(
+                "CALL com.maxdemarzi.export.tree('funeral', 'funeral.tree')", Map.of(), result -> result.stream().count()));
+        System.setProperty("com.maxdemarzi.export.enabled", "true");
+        System.setProperty("com.maxdemarzi.export.directory", file.getParent().toString());
+        Map<String, Object> exported;
+        try {
+            for (String refused : List.of(file.toAbsolutePath().toString(), "../funeral.tree", "trees/../../funeral.tree")) {
+                assertThrows(QueryExecutionException.class, () -> graphDb.executeTransactionally(
+                        "CALL com.maxdemarzi.export.tree('funeral', $file)", Map.of("file", refused), result -> result.stream().count()));
+            }
+            exported = graphDb.executeTransactionally("CALL com.maxdemarzi.export.tree('funeral', 'funeral.tree')",
+                    Map.of(), result -> result.next());
+            // The hash only depends on the tree
+            assertEquals(exported.get("hash"), graphDb.executeTransactionally(
+                    "CALL com.maxdemarzi.export.tree('funeral', 'funeral-again.tree')", Map.of(), result -> result.next().get("hash")));
+            graphDb.executeTransactionally("MATCH (rule:Rule { name: 'I said, was he a good man?' }) SET rule.name = 'Was he a good man?'");
+            assertNotEquals(exported.get("hash"), graphDb.executeTransactionally(
+                    "CALL com.maxdemarzi.export.tree('funeral', 'funeral-changed.tree')", Map.of(), result -> result.next().get("hash")));
+            graphDb.executeTransactionally("MATCH (rule:Rule { name: 'Was he a good man?' }) SET rule.name = 'I said, was he a good man?'");
+        } finally {
+            System.clearProperty("com.maxdemarzi.export.enabled");
+            System.clearProperty("com.maxdemarzi.export.directory");
+        }
+        assertEquals(file.toAbsolutePath().toString(), exported.get("file"));
+        assertEquals(6L, exported.get("nodes"));
+        assertEquals(Files.size(file), exported.get("bytes"));
+
+        MappedTree tree = MappedTree.open(file);
+        assertEquals("funeral", tree.getTreeId());
+        assertEquals(exported.get("hash"), tree.getHash());
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (Map<String, Object> facts : List.of(Map.<String, Object>of("answer_1", "what", "answer_2", "yeah"),
+                    Map.<String, Object>of("answer_1", "yeah"), Map.<String, Object>of("answer_1", "nope"))) {
+                List<Map<String, Object>> expected = tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_kernel('funeral', $facts)", Map.of("facts", facts))
+                        .stream().collect(Collectors.toList());
+                assertEquals(expected, tree.evaluate(facts).stream()
+                        .map(result -> Map.<String, Object>of("answer", result.answer, "rules", result.rules))
+                        .collect(Collectors.toList()));
+            }
+        }
+        log.info("testExport...DONE" );
+    }
+
+    @Test
+    void testClient() throws Exception {
+        log.info("testClient..." );
+        // Only this test needs Bolt, so it gets a database of its own
+        Path boltDirectory = Path.of( "target/neo4j-bolt-test-db" );
+        FileUtils.deleteDirectory(boltDirectory.toFile());
+        DatabaseManagementService bolt = new DatabaseManagementServiceBuilder( boltDirectory )
+                .setConfig(BoltConnector.enabled, true)
+                .setConfig(BoltConnector.listen_address, new SocketAddress("localhost", BOLT_PORT))
+                .setConfig(GraphDatabaseSettings.auth_enabled, false)
+                .build();
+        try {
+            GraphDatabaseService boltDb = bolt.database( DEFAULT_DATABASE_NAME );
+            ((GraphDatabaseAPI) boltDb).getDependencyResolver().resolveDependency(GlobalProcedures.class)
+                    .registerProcedure(DecisionTreeTraverser.class);
+            boltDb.executeTransactionally(MODEL_STATEMENT);
+
+            try (DecisionTreeClient client = DecisionTreeClient.connect("bolt://localhost:" + BOLT_PORT, AuthTokens.none(), 4)) {
+                List<CompletableFuture<List<String>>> decisions = new ArrayList<>();
+                for (int age = 15; age < 25; age++) {
+                    decisions.add(client.decide("bar entrance", Map.of("gender", "male", "age", age)).toCompletableFuture());
+                }
+                for (int age = 15; age < 25; age++) {
+                    assertEquals(List.of(age >= 21 ? "yes" : "no"), decisions.get(age - 15).get(10, TimeUnit.SECONDS));
+                }
+            }
+
+            // Past maxPending decisions fail right away, and closing waits for those still pending
+            try (Driver driver = GraphDatabase.driver("bolt://localhost:" + BOLT_PORT, AuthTokens.none())) {
+                DecisionTreeClient client = new DecisionTreeClient(driver, 100, Duration.ofMillis(500), 2, Duration.ofSeconds(5));
+                List<CompletableFuture<List<String>>> decisions = new ArrayList<>();
+                for (int age = 20; age < 23; age++) {
+                    decisions.add(client.decide("bar entrance", Map.of("gender", "male", "age", age)).toCompletableFuture());
+                }
+                assert(decisions.get(2).isCompletedExceptionally());
+                client.close();
+                assertEquals(List.of("no"), decisions.get(0).getNow(null));
+                assertEquals(List.of("yes"), decisions.get(1).getNow(null));
+
+                // Decisions for a tree that doesn't exist fail rather than reach nothing
+                client = new DecisionTreeClient(driver, 100, Duration.ofMillis(1), 2, Duration.ofSeconds(5));
+                CompletableFuture<List<String>> missing = client.decide("missing", Map.of("age", 20)).toCompletableFuture();
+                ExecutionException error = assertThrows(ExecutionException.class, () -> missing.get(10, TimeUnit.SECONDS));
+                assert(error.getCause() instanceof NoSuchElementException);
+                client.close();
+            }
+
+            // Batches the driver can't send fail their decisions, which gives their permits back for close
+            Driver closed = GraphDatabase.driver("bolt://localhost:" + BOLT_PORT, AuthTokens.none());
+            closed.close();
+            DecisionTreeClient client = new DecisionTreeClient(closed, 100, Duration.ofMillis(1), 2, Duration.ofSeconds(5));
+            CompletableFuture<List<String>> failed = client.decide("bar entrance", Map.of("age", 20)).toCompletableFuture();
+            assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+            client.close();
+        } finally {
+            bolt.shutdown();
+        }
+        log.info("testClient...DONE" );
+    }
+
+    @Test
+    void testPrecompile() {
+        log.info("testPrecompile..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        graphDb.executeTransactionally(COMPILED_QUERY, Map.of("tree", "bar entrance", "facts", Map.of("gender", "male", "age", "20")),
+                result -> result.stream().count());
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+        Map<String, Object> precompiled = graphDb.executeTransactionally("CALL com.maxdemarzi.rules.precompile()",
+                Map.of(), result -> result.next());
+        assertEquals(4L, precompiled.get("compiled"));
+        assertEquals(0L, precompiled.get("errors"));
+
+        // Storing the bytecode doesn't change the trees, so the class compiled before is still used
+        assertEquals(1, compiled("bar entrance", Map.of("gender", "male", "age", "19")).size());
+        Map<?, ?> trees = (Map<?, ?>) metric(graphDb.executeTransactionally("CALL com.maxdemarzi.metrics()", Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "compiled trees").get("details");
+        assertEquals(1L, trees.get("hits"));
+        assertEquals(0L, trees.get("misses"));
+        assertEquals(4L, graphDb.executeTransactionally("CALL com.maxdemarzi.rules.precompile()",
+                Map.of(), result -> result.next()).get("skipped"));
+
+        // As after a restart, the scripts are loaded from their bytecode, the simple expressions are interpreted
+        RuleCache.getInstance().clear();
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("correct"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('funeral', {answer_1:'what', answer_2:'yeah'})")));
+            assertEquals(List.of("no"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', {gender:'male', age:20})")));
+        }
+        Map<String, Object> bytecode = metric(graphDb.executeTransactionally("CALL com.maxdemarzi.metrics()", Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "rule bytecode");
+        assertEquals(2L, ((Map<?, ?>) bytecode.get("details")).get("hits"));
+
+        // Bytecode of a changed rule is not used
+        graphDb.executeTransactionally("MATCH (r:Rule {name: 'I said, was he a good man?'}) SET r.script = 'return \"UNKNOWN\";'");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals(List.of("unknown"), answers(tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_kernel('funeral', {answer_1:'what', answer_2:'yeah'})")));
+        }
+        log.info("testPrecompile...DONE" );
+    }
+
+    @Test
+    void testMetrics() {
+        log.info("testMetrics..." );
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            tx.execute(QUERY1).stream().count();
+            tx.execute(QUERY2).stream().count();
+            tx.execute("CALL com.maxdemarzi.traverse.decision_tree_typed('bar entrance', {gender:'male', age:25})").stream().count();
+        }
+        List<Map<String, Object>> metrics = graphDb.executeTransactionally(
+                "CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().collect(Collectors.toList()));
+
+        Map<String, Object> tree = metric(metrics, "tree", "bar entrance");
+        assertEquals(3L, tree.get("count"));
+        assertEquals(Map.of("answers", 3L), tree.get("details"));
+        assert((Double) tree.get("max") >= (Double) tree.get("p50"));
+
+        // over 21 is evaluated three times, the gender rule for the two that are not
+        long evaluations = metrics.stream()
+                .filter(row -> row.get("scope").equals("rule"))
+                .mapToLong(row -> (Long) row.get("count"))
+                .sum();
+        assertEquals(5L, evaluations);
+
+        Map<String, Object> rules = metric(metrics, "cache", "rules");
+        assertEquals(5L, rules.get("count"));
+
+        // Everything was reset by the previous call
+        assertEquals(0L, metric(graphDb.executeTransactionally("CALL com.maxdemarzi.metrics()", Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "tree", "bar entrance").get("count"));
+        // Scripts can return anything, past the first outcomes they are counted together
+        RuleMetrics script = new RuleMetrics();
+        for (int i = 0; i < RuleMetrics.MAXIMUM_OUTCOMES + 8; i++) {
+            script.script(1000, "OUTCOME_" + i);
+        }
+        assertEquals(RuleMetrics.MAXIMUM_OUTCOMES + 1, script.getOutcomes().size());
+        assertEquals(8L, script.getOutcomes().get(RuleMetrics.OTHER_OUTCOMES));
+
+        // The metrics of a Rule go with it
+        String over21 = graphDb.executeTransactionally("MATCH (rule:Rule { expression: 'age >= 21' }) RETURN elementId(rule) AS id",
+                Map.of(), result -> (String) result.next().get("id"));
+        assert(MetricsRegistry.getInstance().getRules().containsKey(over21));
+        graphDb.executeTransactionally("MATCH (rule:Rule { expression: 'age >= 21' }) DETACH DELETE rule");
+        assert(!MetricsRegistry.getInstance().getRules().containsKey(over21));
+        log.info("testMetrics...DONE" );
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testProfile() {
+        log.info("testProfile..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            Map<String, Object> profile = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_profile('bar entrance', {gender:'male', age:'20'})").next();
+            assertEquals(1, ((List<?>) profile.get("paths")).size());
+            List<Map<String, Object>> steps = (List<Map<String, Object>>) profile.get("steps");
+            // tree, over 21 and gender, the evaluator stops at the answer before it is expanded
+            assertEquals(List.of("Branch", "Rule", "Rule"),
+                    steps.stream().map(step -> step.get("kind")).collect(Collectors.toList()));
+            assertEquals("age >= 21", steps.get(1).get("rule"));
+            assertEquals("false", steps.get(1).get("outcome"));
+            assertEquals("IS_FALSE", steps.get(1).get("branch"));
+            Map<String, Object> phases = (Map<String, Object>) profile.get("phases");
+            assert(phases.containsKey("findNode"));
+            assert(phases.containsKey("evaluate"));
+
+            profile = tx.execute(
+                    "CALL com.maxdemarzi.traverse.decision_tree_two_profile('funeral', {answer_1:'what', answer_2:'yeah'})").next();
+            steps = (List<Map<String, Object>>) profile.get("steps");
+            assertEquals("Was Lil Jon a good man?", steps.get(1).get("rule"));
+            assertEquals("OPTION_2", steps.get(1).get("branch"));
+            assertEquals("OPTION_1", steps.get(2).get("outcome"));
+        }
+        log.info("testProfile...DONE" );
+    }
+
+    @Test
+    void testWarmUp() throws Exception {
+        log.info("testWarmUp..." );
+        graphDb.executeTransactionally(FUNERAL_MODEL_STATEMENT);
+
+        // Restart with the trees already there
+        managementService.shutdown();
+        System.clearProperty("com.maxdemarzi.warmup.enabled");
+        managementService = new DatabaseManagementServiceBuilder( databaseDirectory ).build();
+        graphDb = managementService.database( DEFAULT_DATABASE_NAME );
+        ((GraphDatabaseAPI) graphDb).getDependencyResolver().resolveDependency(GlobalProcedures.class)
+                .registerProcedure(WarmUps.class);
+
+        Map<String, Object> status = Map.of();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            status = graphDb.executeTransactionally("CALL com.maxdemarzi.warmup.status()", Map.of(),
+                    result -> result.next());
+            if ("DONE".equals(status.get("state"))) {
+                break;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals("DONE", status.get("state"));
+        assertEquals(DEFAULT_DATABASE_NAME, status.get("database"));
+        assertEquals(2L, status.get("trees"));
+        assertEquals(2L, status.get("warmed"));
+        assertEquals(0L, status.get("errors"));
+        assertEquals(4L, status.get("rules"));
+        log.info("testWarmUp...DONE" );
+    }
+
+    @Test
+    void testInterpreter() throws Exception {
+        log.info("testInterpreter..." );
+        String names = "age,gender,score,member";
+        String types = "int,String,double,boolean";
+        List<String> expressions = List.of(
+                "age >= 21",
+                "(age >= 18) && gender.equals(\"female\")",
+                "!(age < 18) || \"male\".equals(gender) && member",
+                "score > 2.5f == member",
+                "age != -1 && score <= 1e2 || 10 > 2 + 1",
+                "age * 2 > 40",
+                "1 < 2 && age == 20L");
+        List<Map<String, Object>> facts = List.of(
+                Map.of("age", "20", "gender", "female", "score", 2.5, "member", true),
+                Map.of("age", 17L, "gender", "male", "score", "3", "member", "false"),
+                Map.of("age", 30, "gender", "other", "score", -1.0, "member", false));
+        for (String expression : expressions) {
+            CompiledRule interpreted = CompiledRule.expression(names, types, expression);
+            // Loading the classes Janino compiled skips the interpreter
+            CompiledRule compiled = CompiledRule.load(CompiledRule.Kind.EXPRESSION, names, types, expression,
+                    CompiledRule.bytecode(CompiledRule.Kind.EXPRESSION, names, types, expression));
+            assertEquals(!expression.contains("*") && !expression.contains("e2"), interpreted.isInterpreted(), expression);
+            for (Map<String, Object> fact : facts) {
+                assertEquals(compiled.isTrue(compiled.arguments(fact)), interpreted.isTrue(interpreted.arguments(fact)),
+                        expression + " with " + fact);
+            }
+        }
+        // Missing facts fail the rule like they do in Janino
+        assertThrows(InvocationTargetException.class, () -> CompiledRule.expression(names, types, "age > 1")
+                .isTrue(new Object[]{20, null, 1.0, true}));
+        log.info("testInterpreter...DONE" );
+    }
+
+    @Test
+    void testColumnar() {
+        log.info("testColumnar..." );
+        // Expressions and scripts over fact_0 to fact_7, and a few rows with missing or malformed facts
+        graphDb.executeTransactionally(GENERATE_QUERY, Map.of("tree", "generated", "seed", 11L), result -> result.next());
+        Random random = new Random(11);
+        List<Map<String, Object>> facts = new ArrayList<>();
+        for (int row = 0; row < 300; row++) {
+            Map<String, Object> fact = new HashMap<>();
+            for (int f = 0; f < 8; f++) {
+                int value = random.nextInt(100);
+                fact.put("fact_" + f, row % 50 == 7 && f == 3 ? "seven" : row % 2 == 0 ? value : String.valueOf(value));
+            }
+            if (row % 40 == 9) {
+                fact.remove("fact_" + random.nextInt(8));
+            }
+            facts.add(fact);
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (boolean firstMatch : List.of(false, true)) {
+                Map<String, Object> parameters = Map.of("tree", "generated", "facts", facts, "firstMatch", firstMatch);
+                assertEquals(tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_batch_parallel($tree, $facts, 1, $firstMatch) yield index, answers return index, answers",
+                        parameters).stream().collect(Collectors.toList()),
+                        tx.execute(COLUMNAR_QUERY, parameters).stream().collect(Collectors.toList()));
+            }
+            assertEquals(List.of(), tx.execute(COLUMNAR_QUERY, Map.of("tree", "generated", "facts", List.of(), "firstMatch", false))
+                    .stream().collect(Collectors.toList()));
+        }
+        log.info("testColumnar...DONE" );
+    }
+
+    @Test
+    void testAuditLog() throws IOException {
+        log.info("testAuditLog..." );
+        Path directory = Files.createTempDirectory("audit");
+        try {
+            // Nothing drains a log that isn't started, so records past its capacity are dropped
+            AuditLog audit = new AuditLog(directory, 4, AuditLog.Policy.DROP, 1024, 2);
+            for (int i = 0; i < 6; i++) {
+                audit.record("decision_tree", "bar entrance", Map.of("age", 20 + i, "gender", "female"),
+                        List.of(i % 2 == 0 ? "yes" : "no"), List.of("rule"), 1000);
+            }
+            assertEquals(4, audit.getPending());
+            assertEquals(2, audit.getDropped());
+            audit.start();
+            audit.close();
+            assertEquals(4, audit.getWritten());
+            assertEquals(0, audit.getPending());
+            List<String> lines = Files.readAllLines(directory.resolve("decisions.jsonl"));
+            assertEquals(4, lines.size());
+            assert(lines.get(0).contains("\"answers\":[\"yes\"]"));
+            assert(lines.get(0).matches(".*\"facts\":\"[0-9a-f]{64}\".*"));
+
+            // Small files get rotated, only keeping the newest two
+            AuditLog rotating = new AuditLog(directory, 64, AuditLog.Policy.BLOCK, 600, 2);
+            rotating.start();
+            for (int i = 0; i < 40; i++) {
+                rotating.record("decision_tree", "bar entrance", Map.of("age", i), List.of("no"), List.of(), 1000);
+            }
+            rotating.close();
+            assertEquals(40, rotating.getWritten());
+            try (var files = Files.list(directory)) {
+                assertEquals(3, files.count());
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+        log.info("testAuditLog...DONE" );
+    }
+
+    @Test
+    void testAuditBatch() throws IOException {
+        log.info("testAuditBatch..." );
+        // Every row of a batch is written to the audit log as a decision
+        Path directory = Files.createTempDirectory("audit");
+        AuditLog audit = new AuditLog(directory, 64, AuditLog.Policy.BLOCK, AuditLog.DEFAULT_FILE_SIZE, 2);
+        audit.start();
+        AuditLog previous = AuditLog.setInstance(audit);
+        try {
+            List<Map<String, Object>> facts = List.of(Map.of("gender", "male", "age", "20"), Map.of("gender", "female", "age", "18"));
+            List<String> procedures = List.of("decision_tree_batch", "decision_tree_batch_parallel", "decision_tree_batch_columnar");
+            for (String procedure : procedures) {
+                graphDb.executeTransactionally("CALL com.maxdemarzi.traverse." + procedure + "('bar entrance', $facts) yield answers return answers",
+                        Map.of("facts", facts), result -> result.stream().count());
+            }
+
+            // Closing waits for what was recorded to be written
+            AuditLog.setInstance(previous);
+            audit.close();
+            List<String> lines = Files.readAllLines(directory.resolve("decisions.jsonl"));
+            assertEquals(procedures.size() * facts.size(), lines.size());
+            for (String line : lines) {
+                assert(line.contains("\"procedure\":\"decision_tree_batch"));
+                // Both rows went by way of the over 21 Rule and the gender Rule
+                assert(line.matches(".*\"rules\":\\[\"[^\"]+\",\"[^\"]+\"\\].*"));
+            }
+        } finally {
+            AuditLog.setInstance(previous);
+            audit.close();
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+        log.info("testAuditBatch...DONE" );
+    }
+
+    @Test
+    void testDecisionTrees() {
+        log.info("testDecisionTrees..." );
+        // Shares the over 21 Rule node with the bar entrance, and has a Rule of its own with the same expression as the gender rule
+        graphDb.executeTransactionally("MATCH (over21:Rule { expression: 'age >= 21' }), (no:Answer { id: 'no' }) " +
+                "CREATE (tree:Tree { id: 'bar exit' })-[:HAS]->(over21) " +
+                "CREATE (tree)-[:HAS]->(copy:Rule { parameter_names: 'age,gender', parameter_types: 'int,String', expression:'(age >= 18) && gender.equals(\"female\")' }) " +
+                "CREATE (copy)-[:IS_TRUE]->(:Answer { id: 'stay' }) " +
+                "CREATE (copy)-[:IS_FALSE]->(no)");
+        Map<String, Object> parameters = Map.of("trees", List.of("bar entrance", "missing", "bar exit"),
+                "facts", Map.of("gender", "female", "age", "20"));
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)");
+        List<Map<String, Object>> rows = graphDb.executeTransactionally(
+                "CALL com.maxdemarzi.traverse.decision_trees($trees, $facts) yield tree, answers, rules, found return tree, answers, rules, found",
+                parameters, result -> result.stream().collect(Collectors.toList()));
+
+        // Both rules are evaluated for the bar entrance, the bar exit only reuses what they decided.
+        // Rules of the databases of other tests are still in the metrics, so only count those of this one.
+        String database = graphDb.executeTransactionally("MATCH (rule:Rule) RETURN elementId(rule) AS id LIMIT 1", Map.of(),
+                result -> (String) result.next().get("id"));
+        String prefix = database.substring(0, database.lastIndexOf(':') + 1);
+        long evaluations = graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(),
+                result -> result.stream()
+                        .filter(row -> row.get("scope").equals("rule") && ((String) row.get("id")).startsWith(prefix))
+                        .mapToLong(row -> (Long) row.get("count"))
+                        .sum());
+        assertEquals(2L, evaluations);
+
+        assertEquals(List.of("bar entrance", "missing", "bar exit"), rows.stream().map(row -> row.get("tree")).collect(Collectors.toList()));
+        assertEquals(List.of(true, false, true), rows.stream().map(row -> row.get("found")).collect(Collectors.toList()));
+        assertEquals(List.of(), rows.get(1).get("answers"));
+        assertEquals(List.of(), rows.get(1).get("rules"));
+        rows = List.of(rows.get(0), rows.get(2));
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for (Map<String, Object> row : rows) {
+                List<Map<String, Object>> expected = tx.execute(
+                        "CALL com.maxdemarzi.traverse.decision_tree_snapshot($tree, $facts) yield answer, rules return answer, rules",
+                        Map.of("tree", row.get("tree"), "facts", parameters.get("facts"))).stream().collect(Collectors.toList());
+                assertEquals(expected.stream().map(decision -> decision.get("answer")).collect(Collectors.toList()), row.get("answers"));
+                assertEquals(expected.stream().map(decision -> decision.get("rules")).collect(Collectors.toList()), row.get("rules"));
+            }
+        }
+        assertEquals(Set.of("yes", "stay"), Set.copyOf((List<?>) rows.get(1).get("answers")));
+        log.info("testDecisionTrees...DONE" );
+    }
+
+    @Test
+    void testUncommittedChanges() {
+        log.info("testUncommittedChanges..." );
+        List<String> queries = List.of(
+                "CALL com.maxdemarzi.traverse.decision_tree_compiled('bar entrance', $facts)",
+                "CALL com.maxdemarzi.traverse.decision_tree_snapshot('bar entrance', $facts)",
+                "CALL com.maxdemarzi.traverse.decision_tree_kernel('bar entrance', $facts)");
+        Map<String, Object> facts = Map.of("facts", Map.of("gender", "male", "age", 20));
+        // Fills every cache with the committed tree
+        for (String query : queries) {
+            assertEquals(List.of("no"), graphDb.executeTransactionally(query, facts, EmbeddedNeo4jTest::answers));
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            tx.execute("MATCH (rule:Rule { expression: 'age >= 21' }) SET rule.expression = 'age >= 20'");
+            for (String query : queries) {
+                assertEquals(List.of("yes"), answers(tx.execute(query, facts)));
+            }
+            tx.rollback();
+        }
+        // Nothing the rolled back transaction evaluated was kept
+        for (String query : queries) {
+            assertEquals(List.of("no"), graphDb.executeTransactionally(query, facts, EmbeddedNeo4jTest::answers));
+        }
+
+        // Snapshots of the databases of other tests are still loaded, so only count the one that goes away
+        String snapshots = "CALL com.maxdemarzi.snapshot.list() yield tree WHERE tree = 'bar entrance' RETURN count(*) AS trees";
+        long before = graphDb.executeTransactionally(snapshots, Map.of(), result -> (Long) result.next().get("trees"));
+        graphDb.executeTransactionally("MATCH (tree:Tree { id: 'bar entrance' }) DETACH DELETE tree");
+        long after = graphDb.executeTransactionally(snapshots, Map.of(), result -> (Long) result.next().get("trees"));
+        assertEquals(before - 1, after);
+        log.info("testUncommittedChanges...DONE" );
+    }
+
+    @Test
+    void testTreeVersions() throws Exception {
+        log.info("testTreeVersions..." );
+        graphDb.executeTransactionally("CREATE (tree:Tree { id: 'other' })-[:HAS]->(rule:Rule { parameter_names: 'age', parameter_types: 'int', expression: 'age >= 65' }) " +
+                "CREATE (rule)-[:IS_TRUE]->(:Answer { id: 'senior' }) " +
+                "CREATE (rule)-[:IS_FALSE]->(:Answer { id: 'adult' }) " +
+                "CREATE (:Customer { name: 'joe' })");
+        // Different facts every time, so the results don't come out of the decision cache
+        Map<String, Object> facts = Map.of("gender", "male", "age", 20);
+        String compiled = "CALL com.maxdemarzi.traverse.decision_tree_compiled($tree, $facts)";
+        String entrance = "CALL com.maxdemarzi.traverse.decision_tree_compiled('bar entrance', $facts)";
+        String metrics = "CALL com.maxdemarzi.metrics()";
+        for (String tree : List.of("bar entrance", "other")) {
+            graphDb.executeTransactionally(compiled, Map.of("tree", tree, "facts", facts), EmbeddedNeo4jTest::answers);
+        }
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+
+        // Neither changes to the rest of the graph, committed or not, nor changes to another tree recompile a tree
+        graphDb.executeTransactionally("MATCH (customer:Customer) DETACH DELETE customer");
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            tx.execute("CREATE (:Customer { name: 'jim' })");
+            assertEquals(List.of("no"), answers(tx.execute(entrance, Map.of("facts", Map.of("gender", "male", "age", 19)))));
+            tx.commit();
+        }
+        graphDb.executeTransactionally("MATCH (rule:Rule { expression: 'age >= 65' }) SET rule.expression = 'age >= 60'");
+        assertEquals(List.of("no"), graphDb.executeTransactionally(entrance, Map.of("facts", Map.of("gender", "male", "age", 18)),
+                EmbeddedNeo4jTest::answers));
+        assertEquals(List.of("adult"), graphDb.executeTransactionally(compiled, Map.of("tree", "other", "facts", Map.of("age", 30)),
+                EmbeddedNeo4jTest::answers));
+        Map<?, ?> trees = (Map<?, ?>) metric(graphDb.executeTransactionally(metrics, Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "compiled trees").get("details");
+        assertEquals(2L, trees.get("hits"));
+        assertEquals(1L, trees.get("misses"));
+
+        // Callers asking for a changed tree at the same time only compile it once
+        graphDb.executeTransactionally("MATCH (rule:Rule { expression: 'age >= 21' }) SET rule.expression = 'age >= 20'");
+        graphDb.executeTransactionally("CALL com.maxdemarzi.metrics(true)", Map.of(), result -> result.stream().count());
+        List<CompletableFuture<List<Object>>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Map<String, Object> parameters = Map.of("facts", Map.of("gender", "male", "age", 30 + i));
+            calls.add(CompletableFuture.supplyAsync(() ->
+                    graphDb.executeTransactionally(entrance, parameters, EmbeddedNeo4jTest::answers)));
+        }
+        for (CompletableFuture<List<Object>> call : calls) {
+            assertEquals(List.of("yes"), call.get(30, TimeUnit.SECONDS));
+        }
+        trees = (Map<?, ?>) metric(graphDb.executeTransactionally(metrics, Map.of(),
+                result -> result.stream().collect(Collectors.toList())), "cache", "compiled trees").get("details");
+        assertEquals(7L, trees.get("hits"));
+        assertEquals(1L, trees.get("misses"));
+        log.info("testTreeVersions...DONE" );
+    }
+
+    private static Map<String, Object> metric(List<Map<String, Object>> metrics, String scope, String id) {
+        return metrics.stream()
+                .filter(row -> row.get("scope").equals(scope) && row.get("id").equals(id))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static List<Object> answers(Result result) {
+        return result.stream().map(row -> row.get("answer")).collect(Collectors.toList());
+    }
+
+    private List<Map<String, Object>> compiled(String tree, Map<String, Object> facts) {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            return tx.execute(COMPILED_QUERY, Map.of("tree", tree, "facts", facts)).stream().collect(Collectors.toList());
+        }
+    }
+
 //    @Test
 //    void testDressCode() {
 //        log.info("testDressCode..." );